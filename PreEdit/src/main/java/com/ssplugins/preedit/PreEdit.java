@@ -1,8 +1,11 @@
 package com.ssplugins.preedit;
 
+import com.google.gson.JsonParseException;
+import com.ssplugins.preedit.adapters.TemplateCodec;
 import com.ssplugins.preedit.api.AddonLoader;
 import com.ssplugins.preedit.api.PreEditAPI;
 import com.ssplugins.preedit.edit.Catalog;
+import com.ssplugins.preedit.edit.RenderPool;
 import com.ssplugins.preedit.edit.Template;
 import com.ssplugins.preedit.effects.*;
 import com.ssplugins.preedit.gui.EditorTab;
@@ -12,20 +15,28 @@ import com.ssplugins.preedit.input.FileInput;
 import com.ssplugins.preedit.modules.*;
 import com.ssplugins.preedit.util.Dialogs;
 import com.ssplugins.preedit.util.Util;
+import com.ssplugins.preedit.util.data.FontRegistry;
+import com.ssplugins.preedit.util.data.Manifest;
 import com.ssplugins.preedit.util.wrapper.GridScene;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Dimension2D;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TabPane;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 public class PreEdit extends Application implements PreEditAPI {
@@ -116,10 +127,12 @@ public class PreEdit extends Application implements PreEditAPI {
     public void start(Stage stage) {
         this.stage = stage;
         loadSpecialParameters();
+        FontRegistry.getDefault().start();
         catalog = new Catalog(() -> {
             if (menu != null) getMenu().updateAll();
         });
         registerLocalModules();
+        loadCodecParameters();
         Thread.currentThread().setUncaughtExceptionHandler((t, e) -> {
             Util.logError(e);
             Dialogs.exception("Something went wrong. (Error in log file)", null, e);
@@ -142,13 +155,21 @@ public class PreEdit extends Application implements PreEditAPI {
         stage.setTitle(NAME);
         this.menu = new Menu(this);
         //
+        // Addons are loaded in batch mode too, since templates may use their modules.
+        boolean batch = this.getParameters().getNamed().containsKey("batch");
         List<String> failed = loadAddons();
         if (failed.size() > 0) {
             StringBuilder builder = new StringBuilder("The following addons failed to load:");
             failed.forEach(s -> builder.append("\n").append(s));
-            Dialogs.show(builder.toString(), null, Alert.AlertType.INFORMATION);
+            // Nobody is there to close a dialog in batch mode.
+            if (batch) Util.log(builder.toString());
+            else Dialogs.show(builder.toString(), null, Alert.AlertType.INFORMATION);
         }
         //
+        if (batch) {
+            runBatch();
+            return;
+        }
         GridScene menu = this.menu.getGUI();
         stage.setScene(menu);
         stage.show();
@@ -163,6 +184,11 @@ public class PreEdit extends Application implements PreEditAPI {
         loadParameters();
     }
     
+    @Override
+    public void stop() {
+        if (catalog != null) catalog.close();
+    }
+    
     private void loadSpecialParameters() {
         Map<String, String> params = this.getParameters().getNamed();
         if (params.containsKey("wd")) {
@@ -170,6 +196,25 @@ public class PreEdit extends Application implements PreEditAPI {
         }
     }
     
+    // --codec=binary saves templates in the binary format, --convert also rewrites the existing ones.
+    private void loadCodecParameters() {
+        Map<String, String> params = this.getParameters().getNamed();
+        if (!params.containsKey("codec")) return;
+        Optional<TemplateCodec> codec = catalog.findCodec(params.get("codec"));
+        if (!codec.isPresent()) {
+            Util.log("Unknown template codec: " + params.get("codec"));
+            return;
+        }
+        catalog.setCodec(codec.get());
+        if (params.containsKey("convert")) {
+            try {
+                Util.log("Converted " + catalog.convertTemplates(codec.get()) + " templates to " + codec.get().getName() + ".");
+            } catch (IOException e) {
+                Util.logError(e);
+            }
+        }
+    }
+    
     private void loadParameters() {
         Map<String, String> params = this.getParameters().getNamed();
         Optional.ofNullable(params.get("msg")).ifPresent(s -> {
@@ -194,7 +239,7 @@ public class PreEdit extends Application implements PreEditAPI {
             image.setDelegate(ImageModule.Delegate.NOT_NEXT);
             image.setFile(file);
             Platform.runLater(() -> {
-                Optional<Image> img = image.getImage();
+                Optional<Dimension2D> img = image.getImageSize();
                 if (!img.isPresent()) {
                     Dialogs.show("Unable to load input image.", null, Alert.AlertType.WARNING);
                     return;
@@ -209,6 +254,67 @@ public class PreEdit extends Application implements PreEditAPI {
         }
     }
     
+    // --batch=<template> --manifest=<csv or jsonl file> [--out=<directory>] [--format=png] [--workers=<count>]
+    private void runBatch() {
+        Map<String, String> params = this.getParameters().getNamed();
+        String name = params.get("batch");
+        String manifest = params.get("manifest");
+        File out = new File(params.getOrDefault("out", new File(getApplicationDirectory(), "output").getPath()));
+        String format = params.getOrDefault("format", "png");
+        int workers;
+        try {
+            workers = Integer.parseInt(params.getOrDefault("workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        } catch (NumberFormatException e) {
+            workers = 1;
+        }
+        RenderPool pool = new RenderPool(catalog, name, workers);
+        AtomicLong written = new AtomicLong();
+        Thread thread = new Thread(() -> {
+            try {
+                if (manifest == null) {
+                    Util.log("Batch mode requires --manifest=<file>.");
+                    return;
+                }
+                out.mkdirs();
+                boolean started = pool.start((index, image) -> {
+                    if (!image.isPresent()) {
+                        Util.log("Row " + (index + 1) + " has invalid parameters.");
+                        return;
+                    }
+                    File file = new File(out, String.format("%06d.%s", index + 1, format));
+                    try {
+                        if (!Util.writeImage(file, SwingFXUtils.fromFXImage(image.get(), null))) {
+                            Util.log("Invalid image format: " + format);
+                        }
+                    } catch (IOException e) {
+                        Util.logError(e);
+                    }
+                    long done = written.incrementAndGet();
+                    if (done % 1000 == 0) {
+                        Util.log(String.format("%d images (%.1f images/s)", done, pool.getImagesPerSecond()));
+                    }
+                });
+                if (!started) {
+                    Util.log("Could not load template \"" + name + "\".");
+                    return;
+                }
+                try (Manifest rows = new Manifest(Paths.get(manifest))) {
+                    long total = pool.generate(rows.rows());
+                    Util.log(String.format("Rendered %d of %d rows with %d workers (%.1f images/s).", pool.getRendered(), total, pool.getWorkerCount(), pool.getImagesPerSecond()));
+                    for (int i = 0; i < pool.getWorkerCount(); i++) {
+                        Util.log(String.format("Worker %d: %d images (%.1f images/s)", i, pool.getGenerators().get(i).getRendered(), pool.getImagesPerSecond(i)));
+                    }
+                }
+            } catch (IOException | UncheckedIOException | JsonParseException e) {
+                Util.logError(e);
+            } catch (InterruptedException ignored) {
+            } finally {
+                Platform.exit();
+            }
+        }, "Batch");
+        thread.start();
+    }
+    
     public static File getApplicationDirectory() {
         if (workingDir != null) {
             return workingDir;
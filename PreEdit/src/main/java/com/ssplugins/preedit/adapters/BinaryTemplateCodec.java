@@ -0,0 +1,455 @@
+package com.ssplugins.preedit.adapters;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.ssplugins.preedit.edit.Catalog;
+import com.ssplugins.preedit.edit.Effect;
+import com.ssplugins.preedit.edit.Module;
+import com.ssplugins.preedit.edit.Template;
+import com.ssplugins.preedit.exceptions.SimpleException;
+import com.ssplugins.preedit.input.Input;
+import com.ssplugins.preedit.input.InputMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary template format:
+//   "PEBT", version, string table, template
+//   string table: count, then length (varint) and UTF-8 bytes of each string
+//   template: name, width, height, preview size (from version 2), modules
+//   module:   name, display name, effects, inputs
+//   effect:   name, display name, inputs
+//   inputs:   count, then name, user provided, value for each
+// Names and short strings (like enum values) are written once in the string table and referenced by index.
+// Input values are the same trees the JSON format stores, with shorter forms for whole numbers and colors.
+public class BinaryTemplateCodec implements TemplateCodec {
+    
+    private static final byte[] MAGIC = {'P', 'E', 'B', 'T'};
+    private static final int VERSION = 2;
+    // Strings up to this length are put in the string table.
+    private static final int SYMBOL_LENGTH = 32;
+    
+    private static final int NULL = 0, TRUE = 1, FALSE = 2, INT = 3, DOUBLE = 4, STRING = 5, SYMBOL = 6, ARRAY = 7, OBJECT = 8, COLOR = 9;
+    
+    private Catalog catalog;
+    
+    public BinaryTemplateCodec(Catalog catalog) {
+        this.catalog = catalog;
+    }
+    
+    @Override
+    public String getName() {
+        return "binary";
+    }
+    
+    @Override
+    public boolean canDecode(byte[] data) {
+        if (data.length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+    
+    // Written straight from the template. As in the JSON format, only input values are built as trees.
+    @Override
+    public byte[] encode(Template template) throws IOException {
+        Out out = new Out();
+        out.string(template.getName());
+        out.varint(template.getWidth());
+        out.varint(template.getHeight());
+        out.varint(template.getPreviewSize());
+        out.varint(template.getModules().size());
+        for (Module module : template.getModules()) {
+            out.string(module.getName());
+            out.string(module.getDisplayName());
+            out.varint(module.getEffects().size());
+            for (Effect effect : module.getEffects()) {
+                out.string(effect.getName());
+                out.string(effect.getDisplayName());
+                writeInputs(out, effect.getInputs());
+            }
+            writeInputs(out, module.getInputs());
+        }
+        return out.finish();
+    }
+    
+    private static void writeInputs(Out out, InputMap inputs) throws IOException {
+        out.varint(inputs.getInputs().size());
+        for (Map.Entry<String, Input> entry : inputs.getInputs().entrySet()) {
+            out.string(entry.getKey());
+            out.data.writeBoolean(entry.getValue().isUserProvided());
+            writeValue(out, entry.getValue().serialize());
+        }
+    }
+    
+    @Override
+    public byte[] fromJson(JsonObject template) throws IOException {
+        Out out = new Out();
+        out.string(string(template, "name"));
+        out.varint(template.get("width").getAsInt());
+        out.varint(template.get("height").getAsInt());
+        JsonElement previewSize = template.get("previewSize");
+        out.varint(previewSize == null ? Template.DEFAULT_PREVIEW_SIZE : previewSize.getAsInt());
+        JsonArray modules = array(template, "modules");
+        out.varint(modules.size());
+        for (JsonElement element : modules) {
+            JsonObject module = element.getAsJsonObject();
+            out.string(string(module, "name"));
+            out.string(string(module, "displayName"));
+            JsonArray effects = array(module, "effects");
+            out.varint(effects.size());
+            for (JsonElement e : effects) {
+                JsonObject effect = e.getAsJsonObject();
+                out.string(string(effect, "name"));
+                out.string(string(effect, "displayName"));
+                writeInputs(out, effect.getAsJsonObject("inputs"));
+            }
+            writeInputs(out, module.getAsJsonObject("inputs"));
+        }
+        return out.finish();
+    }
+    
+    private static String string(JsonObject object, String key) {
+        JsonElement element = object.get(key);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+    
+    private static JsonArray array(JsonObject object, String key) {
+        JsonElement element = object.get(key);
+        return element == null || !element.isJsonArray() ? new JsonArray() : element.getAsJsonArray();
+    }
+    
+    private static void writeInputs(Out out, JsonObject inputs) throws IOException {
+        if (inputs == null) {
+            out.varint(0);
+            return;
+        }
+        out.varint(inputs.size());
+        for (Map.Entry<String, JsonElement> entry : inputs.entrySet()) {
+            JsonObject input = entry.getValue().getAsJsonObject();
+            out.string(entry.getKey());
+            JsonElement userProvided = input.get("userProvided");
+            out.data.writeBoolean(userProvided != null && userProvided.getAsBoolean());
+            writeValue(out, input.has("value") ? input.get("value") : JsonNull.INSTANCE);
+        }
+    }
+    
+    private static void writeValue(Out out, JsonElement value) throws IOException {
+        if (value.isJsonNull()) {
+            out.data.writeByte(NULL);
+        }
+        else if (value.isJsonObject()) {
+            out.data.writeByte(OBJECT);
+            out.varint(value.getAsJsonObject().size());
+            for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                out.string(entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+        else if (value.isJsonArray()) {
+            JsonArray array = value.getAsJsonArray();
+            if (isColor(array)) {
+                out.data.writeByte(COLOR);
+                for (JsonElement element : array) {
+                    out.data.writeFloat(element.getAsFloat());
+                }
+                return;
+            }
+            out.data.writeByte(ARRAY);
+            out.varint(array.size());
+            for (JsonElement element : array) {
+                writeValue(out, element);
+            }
+        }
+        else {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.data.writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+            }
+            else if (primitive.isNumber()) {
+                double d = primitive.getAsDouble();
+                if (d == Math.rint(d) && Math.abs(d) < (1L << 53)) {
+                    out.data.writeByte(INT);
+                    out.varlong(zigzag((long) d));
+                }
+                else {
+                    out.data.writeByte(DOUBLE);
+                    out.data.writeDouble(d);
+                }
+            }
+            else {
+                String s = primitive.getAsString();
+                if (s.length() <= SYMBOL_LENGTH) {
+                    out.data.writeByte(SYMBOL);
+                    out.string(s);
+                }
+                else {
+                    out.data.writeByte(STRING);
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.varint(bytes.length);
+                    out.data.write(bytes);
+                }
+            }
+        }
+    }
+    
+    // Colors are stored as four components between 0 and 1 that came from floats.
+    private static boolean isColor(JsonArray array) {
+        if (array.size() != 4) return false;
+        for (JsonElement element : array) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber()) return false;
+            double d = element.getAsDouble();
+            if (d < 0 || d > 1 || (double) (float) d != d) return false;
+        }
+        return true;
+    }
+    
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+    
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+    
+    // Builds the template straight from the data, without going through a JSON tree.
+    @Override
+    public Template decode(byte[] data) throws IOException {
+        In in = new In(data);
+        Template template = new Template(in.string(), in.varint(), in.varint());
+        if (in.version >= 2) template.setPreviewSize(in.varint());
+        int modules = in.varint();
+        for (int i = 0; i < modules; i++) {
+            String name = in.string();
+            Module module = catalog.createModule(name).orElseThrow(() -> new IOException(new SimpleException("Template uses module \"" + name + "\" which is missing.")));
+            String displayName = in.string();
+            if (displayName != null) module.setDisplayName(displayName);
+            int effects = in.varint();
+            for (int j = 0; j < effects; j++) {
+                String effectName = in.string();
+                Effect effect = catalog.createEffect(effectName).orElseThrow(() -> new IOException(new SimpleException("Template uses effect \"" + effectName + "\" which is missing.")));
+                String effectDisplay = in.string();
+                if (effectDisplay != null) effect.setDisplayName(effectDisplay);
+                readInputs(in, effect.getInputs());
+                module.addEffect(effect);
+            }
+            readInputs(in, module.getInputs());
+            template.addModule(module);
+        }
+        return template;
+    }
+    
+    private static void readInputs(In in, InputMap map) throws IOException {
+        int count = in.varint();
+        for (int i = 0; i < count; i++) {
+            String name = in.string();
+            boolean userProvided = in.data.readBoolean();
+            JsonElement value = readValue(in);
+            map.getInput(name).ifPresent(input -> {
+                input.setUserProvided(userProvided);
+                input.deserialize(value);
+            });
+        }
+    }
+    
+    @Override
+    public JsonObject toJson(byte[] data) throws IOException {
+        In in = new In(data);
+        JsonObject template = new JsonObject();
+        template.addProperty("name", in.string());
+        template.addProperty("width", in.varint());
+        template.addProperty("height", in.varint());
+        template.addProperty("previewSize", in.version >= 2 ? in.varint() : Template.DEFAULT_PREVIEW_SIZE);
+        JsonArray modules = new JsonArray();
+        int moduleCount = in.varint();
+        for (int i = 0; i < moduleCount; i++) {
+            JsonObject module = new JsonObject();
+            module.addProperty("name", in.string());
+            module.addProperty("displayName", in.string());
+            JsonArray effects = new JsonArray();
+            int effectCount = in.varint();
+            for (int j = 0; j < effectCount; j++) {
+                JsonObject effect = new JsonObject();
+                effect.addProperty("name", in.string());
+                effect.addProperty("displayName", in.string());
+                effect.add("inputs", readInputTree(in));
+                effects.add(effect);
+            }
+            module.add("effects", effects);
+            module.add("inputs", readInputTree(in));
+            modules.add(module);
+        }
+        template.add("modules", modules);
+        return template;
+    }
+    
+    private static JsonObject readInputTree(In in) throws IOException {
+        JsonObject inputs = new JsonObject();
+        int count = in.varint();
+        for (int i = 0; i < count; i++) {
+            String name = in.string();
+            JsonObject input = new JsonObject();
+            input.addProperty("userProvided", in.data.readBoolean());
+            input.add("value", readValue(in));
+            inputs.add(name, input);
+        }
+        return inputs;
+    }
+    
+    private static JsonElement readValue(In in) throws IOException {
+        int type = in.data.readUnsignedByte();
+        switch (type) {
+            case NULL:
+                return JsonNull.INSTANCE;
+            case TRUE:
+                return new JsonPrimitive(true);
+            case FALSE:
+                return new JsonPrimitive(false);
+            case INT:
+                return new JsonPrimitive(unzigzag(in.varlong()));
+            case DOUBLE:
+                return new JsonPrimitive(in.data.readDouble());
+            case SYMBOL:
+                return new JsonPrimitive(in.string());
+            case STRING:
+                byte[] bytes = new byte[in.varint()];
+                in.data.readFully(bytes);
+                return new JsonPrimitive(new String(bytes, StandardCharsets.UTF_8));
+            case COLOR:
+                JsonArray color = new JsonArray();
+                for (int i = 0; i < 4; i++) {
+                    color.add((double) in.data.readFloat());
+                }
+                return color;
+            case ARRAY:
+                JsonArray array = new JsonArray();
+                int size = in.varint();
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue(in));
+                }
+                return array;
+            case OBJECT:
+                JsonObject object = new JsonObject();
+                int keys = in.varint();
+                for (int i = 0; i < keys; i++) {
+                    String key = in.string();
+                    object.add(key, readValue(in));
+                }
+                return object;
+            default:
+                throw new IOException("Unknown value type " + type + ".");
+        }
+    }
+    
+    // Writes the body first so the string table can be put in front of it.
+    private static class Out {
+        private ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private DataOutputStream data = new DataOutputStream(body);
+        private Map<String, Integer> strings = new LinkedHashMap<>();
+        
+        // Index into the string table, shifted by one so 0 can mean null.
+        private void string(String s) throws IOException {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.put(s, index);
+            }
+            varint(index + 1);
+        }
+        
+        private void varint(int n) throws IOException {
+            varlong(n & 0xFFFFFFFFL);
+        }
+        
+        private void varlong(long n) throws IOException {
+            varlong(data, n);
+        }
+        
+        private static void varlong(DataOutputStream data, long n) throws IOException {
+            while ((n & ~0x7FL) != 0) {
+                data.writeByte((int) ((n & 0x7F) | 0x80));
+                n >>>= 7;
+            }
+            data.writeByte((int) n);
+        }
+        
+        private byte[] finish() throws IOException {
+            ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + strings.size() * 16 + 16);
+            DataOutputStream header = new DataOutputStream(result);
+            header.write(MAGIC);
+            header.writeShort(VERSION);
+            header.writeInt(strings.size());
+            for (String s : strings.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                varlong(header, bytes.length);
+                header.write(bytes);
+            }
+            body.writeTo(result);
+            return result.toByteArray();
+        }
+    }
+    
+    private static class In {
+        private DataInputStream data;
+        private int version;
+        private List<String> strings;
+        
+        private In(byte[] bytes) throws IOException {
+            data = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (bytes.length < MAGIC.length + 6) throw new IOException("Not a binary template.");
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (data.readByte() != MAGIC[i]) throw new IOException("Not a binary template.");
+            }
+            version = data.readUnsignedShort();
+            if (version > VERSION) throw new IOException("Template was saved by a newer version (format " + version + ").");
+            int count = data.readInt();
+            if (count < 0 || count > bytes.length) throw new IOException("Invalid string table.");
+            strings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = varint();
+                if (length < 0 || length > data.available()) throw new IOException("Invalid string table.");
+                byte[] string = new byte[length];
+                data.readFully(string);
+                strings.add(new String(string, StandardCharsets.UTF_8));
+            }
+        }
+        
+        private String string() throws IOException {
+            int index = varint();
+            if (index == 0) return null;
+            if (index > strings.size()) throw new IOException("Invalid string reference.");
+            return strings.get(index - 1);
+        }
+        
+        private int varint() throws IOException {
+            return (int) varlong();
+        }
+        
+        private long varlong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = data.readUnsignedByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IOException("Malformed number.");
+        }
+    }
+    
+}
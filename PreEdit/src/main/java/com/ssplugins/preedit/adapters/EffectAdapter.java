@@ -1,41 +1,67 @@
 package com.ssplugins.preedit.adapters;
 
-import com.google.gson.*;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.ssplugins.preedit.edit.Catalog;
 import com.ssplugins.preedit.edit.Effect;
 import com.ssplugins.preedit.exceptions.SimpleException;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 
-public class EffectAdapter implements JsonSerializer<Effect>, JsonDeserializer<Effect> {
+public class EffectAdapter extends TypeAdapter<Effect> {
     
     private Catalog catalog;
+    private InputMapAdapter inputMapAdapter;
     
-    public EffectAdapter(Catalog catalog) {
+    public EffectAdapter(Catalog catalog, InputMapAdapter inputMapAdapter) {
         this.catalog = catalog;
+        this.inputMapAdapter = inputMapAdapter;
     }
     
     @Override
-    public Effect deserialize(JsonElement element, Type type, JsonDeserializationContext context) throws JsonParseException {
-        JsonObject json = element.getAsJsonObject();
-        String name = json.get("name").getAsString();
-        Effect effect = catalog.createEffect(name).orElseThrow(() -> new JsonParseException(new SimpleException("Template uses effect \"" + name + "\" which is missing.")));
-        if (json.has("displayName")) {
-            JsonElement display = json.get("displayName");
-            if (!display.isJsonNull()) effect.setDisplayName(display.getAsString());
-        }
-        JsonObject inputs = json.getAsJsonObject("inputs");
-        InputMapAdapter.deserialize(inputs, effect.getInputs());
-        return effect;
+    public void write(JsonWriter out, Effect effect) throws IOException {
+        out.beginObject();
+        out.name("name").value(effect.getName());
+        out.name("displayName").value(effect.getDisplayName());
+        out.name("inputs");
+        inputMapAdapter.write(out, effect.getInputs());
+        out.endObject();
     }
     
     @Override
-    public JsonElement serialize(Effect effect, Type type, JsonSerializationContext context) {
-        JsonObject out = new JsonObject();
-        out.addProperty("name", effect.getName());
-        out.addProperty("displayName", effect.getDisplayName());
-        out.add("inputs", context.serialize(effect.getInputs()));
-        return out;
+    public Effect read(JsonReader in) throws IOException {
+        Effect effect = null;
+        String displayName = null;
+        // Only needed if the inputs come before the name.
+        JsonElement inputs = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":
+                    String name = in.nextString();
+                    effect = catalog.createEffect(name).orElseThrow(() -> new JsonParseException(new SimpleException("Template uses effect \"" + name + "\" which is missing.")));
+                    break;
+                case "displayName":
+                    if (in.peek() == JsonToken.NULL) in.nextNull();
+                    else displayName = in.nextString();
+                    break;
+                case "inputs":
+                    if (effect != null) InputMapAdapter.read(in, effect.getInputs());
+                    else inputs = InputMapAdapter.ELEMENT.read(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (effect == null) throw new JsonParseException("Effect is missing a name.");
+        if (displayName != null) effect.setDisplayName(displayName);
+        if (inputs != null) InputMapAdapter.deserialize(inputs, effect.getInputs());
+        return effect;
     }
     
 }
@@ -1,36 +1,77 @@
 package com.ssplugins.preedit.adapters;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.ssplugins.preedit.input.Input;
 import com.ssplugins.preedit.input.InputMap;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
 
-public class InputMapAdapter implements JsonSerializer<InputMap> {
+// Input values still go through each input's JsonConverter, only the value itself is built as a tree.
+// Input maps are created by their module, so reading one only fills in the values of an existing map.
+// That's why this isn't a registered TypeAdapter<InputMap>: one can't be read on its own.
+public class InputMapAdapter {
     
-    @Override
-    public JsonElement serialize(InputMap inputMap, Type type, JsonSerializationContext jsonSerializationContext) {
-        JsonObject out = new JsonObject();
-        inputMap.getInputs().forEach((s, input) -> {
-            JsonObject d = new JsonObject();
-            d.addProperty("userProvided", input.isUserProvided());
-            d.add("value", input.serialize());
-            out.add(s, d);
-        });
-        return out;
+    static final TypeAdapter<JsonElement> ELEMENT = new Gson().getAdapter(JsonElement.class);
+    
+    public void write(JsonWriter out, InputMap inputMap) throws IOException {
+        out.beginObject();
+        for (Map.Entry<String, Input> entry : inputMap.getInputs().entrySet()) {
+            out.name(entry.getKey());
+            out.beginObject();
+            out.name("userProvided").value(entry.getValue().isUserProvided());
+            out.name("value");
+            ELEMENT.write(out, entry.getValue().serialize());
+            out.endObject();
+        }
+        out.endObject();
     }
     
+    // Same as read, for inputs that were buffered as a tree.
     public static void deserialize(JsonElement element, InputMap map) {
-        JsonObject json = element.getAsJsonObject();
-        json.keySet().forEach(s -> {
-            JsonObject d = json.getAsJsonObject(s);
-            map.getInput(s).ifPresent(input -> {
-                input.setUserProvided(d.get("userProvided").getAsBoolean());
-                input.deserialize(d.get("value"));
-            });
+        if (!element.isJsonObject()) throw new JsonParseException("Inputs must be an object.");
+        element.getAsJsonObject().entrySet().forEach(entry -> {
+            Optional<Input> input = map.getInput(entry.getKey());
+            if (!input.isPresent() || !entry.getValue().isJsonObject()) return;
+            JsonObject data = entry.getValue().getAsJsonObject();
+            JsonElement userProvided = data.get("userProvided");
+            if (userProvided != null && userProvided.isJsonPrimitive() && userProvided.getAsJsonPrimitive().isBoolean()) {
+                input.get().setUserProvided(userProvided.getAsBoolean());
+            }
+            if (data.has("value")) input.get().deserialize(data.get("value"));
         });
     }
     
+    public static void read(JsonReader in, InputMap map) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            Optional<Input> input = map.getInput(in.nextName());
+            if (!input.isPresent()) {
+                in.skipValue();
+                continue;
+            }
+            Boolean userProvided = null;
+            JsonElement value = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("userProvided") && in.peek() == JsonToken.BOOLEAN) userProvided = in.nextBoolean();
+                else if (name.equals("value")) value = ELEMENT.read(in);
+                else in.skipValue();
+            }
+            in.endObject();
+            if (userProvided != null) input.get().setUserProvided(userProvided);
+            if (value != null) input.get().deserialize(value);
+        }
+        in.endObject();
+    }
+    
 }
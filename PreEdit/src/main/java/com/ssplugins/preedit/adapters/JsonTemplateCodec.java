@@ -0,0 +1,71 @@
+package com.ssplugins.preedit.adapters;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ssplugins.preedit.edit.Template;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public class JsonTemplateCodec implements TemplateCodec {
+    
+    private Gson gson;
+    
+    public JsonTemplateCodec(Gson gson) {
+        this.gson = gson;
+    }
+    
+    @Override
+    public String getName() {
+        return "json";
+    }
+    
+    @Override
+    public boolean canDecode(byte[] data) {
+        for (byte b : data) {
+            if (Character.isWhitespace(b)) continue;
+            return b == '{';
+        }
+        return false;
+    }
+    
+    @Override
+    public byte[] encode(Template template) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            gson.toJson(template, Template.class, writer);
+        }
+        return out.toByteArray();
+    }
+    
+    @Override
+    public Template decode(byte[] data) throws IOException {
+        try {
+            return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8), Template.class);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public JsonObject toJson(byte[] data) throws IOException {
+        try {
+            return new JsonParser().parse(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public byte[] fromJson(JsonObject template) {
+        return template.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+}
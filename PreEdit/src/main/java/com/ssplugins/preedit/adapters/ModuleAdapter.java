@@ -1,55 +1,89 @@
 package com.ssplugins.preedit.adapters;
 
-import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.ssplugins.preedit.edit.Catalog;
 import com.ssplugins.preedit.edit.Effect;
 import com.ssplugins.preedit.edit.Module;
 import com.ssplugins.preedit.exceptions.SimpleException;
-import com.ssplugins.preedit.util.wrapper.ShiftList;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
-public class ModuleAdapter implements JsonSerializer<Module>, JsonDeserializer<Module> {
-    
-    private static final Type effectType = new TypeToken<ShiftList<Effect>>() {
-    }.getType();
+public class ModuleAdapter extends TypeAdapter<Module> {
     
     private Catalog catalog;
+    private EffectAdapter effectAdapter;
+    private InputMapAdapter inputMapAdapter;
     
-    public ModuleAdapter(Catalog catalog) {
+    public ModuleAdapter(Catalog catalog, EffectAdapter effectAdapter, InputMapAdapter inputMapAdapter) {
         this.catalog = catalog;
+        this.effectAdapter = effectAdapter;
+        this.inputMapAdapter = inputMapAdapter;
     }
     
     @Override
-    public Module deserialize(JsonElement element, Type type, JsonDeserializationContext context) throws JsonParseException {
-        JsonObject json = element.getAsJsonObject();
-        String name = json.get("name").getAsString();
-        Module module = catalog.createModule(name).orElseThrow(() -> new JsonParseException(new SimpleException("Template uses module \"" + name + "\" which is missing.")));
-        if (json.has("displayName")) {
-            JsonElement display = json.get("displayName");
-            if (!display.isJsonNull()) module.setDisplayName(display.getAsString());
+    public void write(JsonWriter out, Module module) throws IOException {
+        out.beginObject();
+        out.name("name").value(module.getName());
+        out.name("displayName").value(module.getDisplayName());
+        out.name("effects");
+        out.beginArray();
+        for (Effect effect : module.getEffects()) {
+            effectAdapter.write(out, effect);
         }
-        List<Effect> effects = context.deserialize(json.getAsJsonArray("effects"), effectType);
-        effects.forEach(module::addEffect);
-        JsonObject inputs = json.getAsJsonObject("inputs");
-        InputMapAdapter.deserialize(inputs, module.getInputs());
-        return module;
+        out.endArray();
+        out.name("inputs");
+        inputMapAdapter.write(out, module.getInputs());
+        out.endObject();
     }
     
     @Override
-    public JsonElement serialize(Module module, Type type, JsonSerializationContext context) {
-        JsonObject out = new JsonObject();
-        out.addProperty("name", module.getName());
-        out.addProperty("displayName", module.getDisplayName());
-        JsonArray effects = new JsonArray();
-        module.getEffects().forEach(effect -> {
-            effects.add(context.serialize(effect, Effect.class));
-        });
-        out.add("effects", effects);
-        out.add("inputs", context.serialize(module.getInputs()));
-        return out;
+    public Module read(JsonReader in) throws IOException {
+        Module module = null;
+        String displayName = null;
+        List<Effect> effects = new ArrayList<>();
+        // Only needed if the inputs come before the name.
+        JsonElement inputs = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":
+                    String name = in.nextString();
+                    module = catalog.createModule(name).orElseThrow(() -> new JsonParseException(new SimpleException("Template uses module \"" + name + "\" which is missing.")));
+                    break;
+                case "displayName":
+                    if (in.peek() == JsonToken.NULL) in.nextNull();
+                    else displayName = in.nextString();
+                    break;
+                case "effects":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        Effect effect = effectAdapter.read(in);
+                        if (module != null) module.addEffect(effect);
+                        else effects.add(effect);
+                    }
+                    in.endArray();
+                    break;
+                case "inputs":
+                    if (module != null) InputMapAdapter.read(in, module.getInputs());
+                    else inputs = InputMapAdapter.ELEMENT.read(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (module == null) throw new JsonParseException("Module is missing a name.");
+        if (displayName != null) module.setDisplayName(displayName);
+        effects.forEach(module::addEffect);
+        if (inputs != null) InputMapAdapter.deserialize(inputs, module.getInputs());
+        return module;
     }
     
 }
@@ -1,40 +1,79 @@
 package com.ssplugins.preedit.adapters;
 
-import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.ssplugins.preedit.edit.Module;
 import com.ssplugins.preedit.edit.Template;
-import com.ssplugins.preedit.util.wrapper.ShiftList;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
-public class TemplateAdapter implements JsonSerializer<Template>, JsonDeserializer<Template> {
+// Templates are written straight to the output and read without building a JsonObject for the whole template.
+public class TemplateAdapter extends TypeAdapter<Template> {
     
-    private static final Type moduleType = new TypeToken<ShiftList<Module>>() {
-    }.getType();
+    private ModuleAdapter moduleAdapter;
+    
+    public TemplateAdapter(ModuleAdapter moduleAdapter) {
+        this.moduleAdapter = moduleAdapter;
+    }
     
     @Override
-    public Template deserialize(JsonElement element, Type type, JsonDeserializationContext context) throws JsonParseException {
-        JsonObject json = element.getAsJsonObject();
-        Template template = new Template(json.get("name").getAsString(), json.get("width").getAsInt(), json.get("height").getAsInt());
-        List<Module> modules = context.deserialize(json.getAsJsonArray("modules"), moduleType);
-        modules.forEach(template::addModule);
-        return template;
+    public void write(JsonWriter out, Template template) throws IOException {
+        out.beginObject();
+        out.name("name").value(template.getName());
+        out.name("width").value(template.getWidth());
+        out.name("height").value(template.getHeight());
+        out.name("previewSize").value(template.getPreviewSize());
+        out.name("modules");
+        out.beginArray();
+        for (Module module : template.getModules()) {
+            moduleAdapter.write(out, module);
+        }
+        out.endArray();
+        out.endObject();
     }
     
     @Override
-    public JsonElement serialize(Template template, Type type, JsonSerializationContext context) {
-        JsonObject out = new JsonObject();
-        out.addProperty("name", template.getName());
-        out.addProperty("width", template.getWidth());
-        out.addProperty("height", template.getHeight());
-        JsonArray modules = new JsonArray();
-        template.getModules().forEach(module -> {
-            modules.add(context.serialize(module, Module.class));
-        });
-        out.add("modules", modules);
-        return out;
+    public Template read(JsonReader in) throws IOException {
+        String name = null;
+        Integer width = null, height = null;
+        int previewSize = Template.DEFAULT_PREVIEW_SIZE;
+        List<Module> modules = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "width":
+                    width = in.nextInt();
+                    break;
+                case "height":
+                    height = in.nextInt();
+                    break;
+                case "previewSize":
+                    previewSize = in.nextInt();
+                    break;
+                case "modules":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        modules.add(moduleAdapter.read(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (name == null || width == null || height == null) throw new JsonParseException("Template is missing its name or size.");
+        Template template = new Template(name, width, height);
+        template.setPreviewSize(previewSize);
+        modules.forEach(template::addModule);
+        return template;
     }
     
 }
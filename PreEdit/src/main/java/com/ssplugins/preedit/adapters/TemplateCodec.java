@@ -0,0 +1,25 @@
+package com.ssplugins.preedit.adapters;
+
+import com.google.gson.JsonObject;
+import com.ssplugins.preedit.edit.Template;
+
+import java.io.IOException;
+
+// Format templates are stored in. Every codec can convert to and from the JSON tree,
+// so templates can be moved between formats without loading their modules.
+public interface TemplateCodec {
+    
+    String getName();
+    
+    // Whether the data looks like it was written by this codec.
+    boolean canDecode(byte[] data);
+    
+    byte[] encode(Template template) throws IOException;
+    
+    Template decode(byte[] data) throws IOException;
+    
+    JsonObject toJson(byte[] data) throws IOException;
+    
+    byte[] fromJson(JsonObject template) throws IOException;
+    
+}
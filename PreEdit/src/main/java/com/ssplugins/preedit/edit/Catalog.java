@@ -2,26 +2,27 @@ package com.ssplugins.preedit.edit;
 
 import com.google.gson.*;
 import com.ssplugins.preedit.PreEdit;
-import com.ssplugins.preedit.adapters.EffectAdapter;
-import com.ssplugins.preedit.adapters.InputMapAdapter;
-import com.ssplugins.preedit.adapters.ModuleAdapter;
-import com.ssplugins.preedit.adapters.TemplateAdapter;
-import com.ssplugins.preedit.input.InputMap;
+import com.ssplugins.preedit.adapters.*;
 import com.ssplugins.preedit.util.Dialogs;
+import com.ssplugins.preedit.util.Util;
+import com.ssplugins.preedit.util.data.AssetStore;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 public class Catalog {
     
-    private static final Path TEMPLATE_PATH = Paths.get(PreEdit.getApplicationDirectory().getPath(), "templates.json");
+    private static final Path LEGACY_PATH = Paths.get(PreEdit.getApplicationDirectory().getPath(), "templates.json");
     private Gson gson;
     
-    private JsonObject data;
+    private TemplateStore store;
+    private List<TemplateCodec> codecs = new ArrayList<>();
+    private TemplateCodec codec;
     private Map<String, Class<? extends Module>> modules = new HashMap<>();
     private Map<String, Class<? extends Effect>> effects = new HashMap<>();
     
@@ -30,13 +31,17 @@ public class Catalog {
     public Catalog(Runnable callback) {
         this.callback = callback;
         GsonBuilder gsonBuilder = new GsonBuilder().serializeNulls();
-        gsonBuilder.registerTypeAdapter(Effect.class, new EffectAdapter(this));
-        ModuleAdapter moduleAdapter = new ModuleAdapter(this);
+        InputMapAdapter inputMapAdapter = new InputMapAdapter();
+        EffectAdapter effectAdapter = new EffectAdapter(this, inputMapAdapter);
+        ModuleAdapter moduleAdapter = new ModuleAdapter(this, effectAdapter, inputMapAdapter);
+        gsonBuilder.registerTypeAdapter(Effect.class, effectAdapter);
         gsonBuilder.registerTypeAdapter(Module.class, moduleAdapter);
         gsonBuilder.registerTypeAdapter(NodeModule.class, moduleAdapter);
-        gsonBuilder.registerTypeAdapter(InputMap.class, new InputMapAdapter());
-        gsonBuilder.registerTypeAdapter(Template.class, new TemplateAdapter());
+        gsonBuilder.registerTypeAdapter(Template.class, new TemplateAdapter(moduleAdapter));
         gson = gsonBuilder.create();
+        codec = new JsonTemplateCodec(gson);
+        codecs.add(codec);
+        codecs.add(new BinaryTemplateCodec(this));
         loadTemplates();
     }
     
@@ -58,24 +63,31 @@ public class Catalog {
     
     private void loadTemplates() {
         try {
-            JsonParser parser = new JsonParser();
-            File file = new File(TEMPLATE_PATH.toUri());
-            if (!file.exists()) {
-                Files.write(TEMPLATE_PATH, "{}".getBytes());
-                data = new JsonObject();
-                return;
-            }
-            String json = new String(Files.readAllBytes(TEMPLATE_PATH));
-            try {
-                data = parser.parse(json).getAsJsonObject();
-            } catch (JsonSyntaxException e) {
-                Dialogs.exception("Templates file is not valid JSON.", null, e);
-            }
+            store = new TemplateStore(PreEdit.getApplicationDirectory().toPath(), "templates");
+            // Replaced and deleted templates are what leave assets unreferenced, and compaction follows them.
+            store.setCompactionListener(this::sweepAssets);
+            if (store.getNames().isEmpty() && Files.exists(LEGACY_PATH)) importLegacy();
         } catch (IOException e) {
             Dialogs.exception("Unable to load templates.", null, e);
         }
     }
     
+    // Moves templates from the old single file format into the store.
+    private void importLegacy() throws IOException {
+        String json = new String(Files.readAllBytes(LEGACY_PATH), StandardCharsets.UTF_8);
+        try {
+            JsonObject legacy = new JsonParser().parse(json).getAsJsonObject();
+            for (String name : legacy.keySet()) {
+                JsonObject template = legacy.getAsJsonObject(name);
+                store.write(name, codec.fromJson(template), moduleCount(template));
+            }
+            store.flush();
+            Files.move(LEGACY_PATH, LEGACY_PATH.resolveSibling("templates.json.bak"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (JsonSyntaxException | IllegalStateException e) {
+            Dialogs.exception("Templates file is not valid JSON.", null, e);
+        }
+    }
+    
     private void callback() {
         if (callback != null) callback.run();
     }
@@ -88,18 +100,81 @@ public class Catalog {
         }
     }
     
+    private static int moduleCount(JsonObject template) {
+        JsonElement modules = template.get("modules");
+        return modules != null && modules.isJsonArray() ? modules.getAsJsonArray().size() : 0;
+    }
+    
     public Set<String> getTemplates() {
-        return Collections.unmodifiableSet(data.keySet());
+        if (store == null) return Collections.emptySet();
+        return store.getNames();
     }
     
     public Template newTemplate(String name, int width, int height) {
         return new Template(name, width, height);
     }
     
+    public List<TemplateCodec> getCodecs() {
+        return Collections.unmodifiableList(codecs);
+    }
+    
+    public Optional<TemplateCodec> findCodec(String name) {
+        return codecs.stream().filter(c -> c.getName().equalsIgnoreCase(name)).findFirst();
+    }
+    
+    // Codec used when templates are saved. Templates are read with whichever codec wrote them.
+    public TemplateCodec getCodec() {
+        return codec;
+    }
+    
+    public void setCodec(TemplateCodec codec) {
+        this.codec = codec;
+    }
+    
+    private Optional<TemplateCodec> detectCodec(byte[] data) {
+        return codecs.stream().filter(c -> c.canDecode(data)).findFirst();
+    }
+    
+    // Rewrites stored templates with the given codec. Modules are not loaded, so templates using missing addons are converted too.
+    // Returns the number of templates converted.
+    public int convertTemplates(TemplateCodec target) throws IOException {
+        if (store == null) return 0;
+        int count = 0;
+        for (String name : store.getNames()) {
+            Optional<byte[]> data = store.read(name);
+            if (!data.isPresent()) continue;
+            Optional<TemplateCodec> current = detectCodec(data.get());
+            if (!current.isPresent() || current.get() == target) continue;
+            JsonObject json = current.get().toJson(data.get());
+            store.write(name, target.fromJson(json), moduleCount(json));
+            count++;
+        }
+        store.flush();
+        return count;
+    }
+    
+    // Asset data inlined in the template is moved into the asset store.
     private boolean addPassive(JsonObject template) {
         if (!template.has("name")) return false;
-        data.add(template.get("name").getAsString(), template);
-        return true;
+        try {
+            template = template.deepCopy();
+            AssetStore.getDefault().absorb(template);
+            return store(template.get("name").getAsString(), codec.fromJson(template), moduleCount(template));
+        } catch (IOException e) {
+            Dialogs.exception("Unable to save template.", null, e);
+            return false;
+        }
+    }
+    
+    private boolean store(String name, byte[] data, int modules) {
+        if (store == null) return false;
+        try {
+            store.write(name, data, modules);
+            return true;
+        } catch (IOException e) {
+            Dialogs.exception("Unable to save template.", null, e);
+            return false;
+        }
     }
     
     public void addTemplate(JsonObject template) {
@@ -114,6 +189,25 @@ public class Catalog {
         callback();
     }
     
+    // Deletes assets that no stored template references. If a template can't be read it might reference
+    // any of them, so nothing is deleted.
+    private void sweepAssets() {
+        Set<String> referenced = new HashSet<>();
+        try {
+            for (String name : store.getNames()) {
+                Optional<byte[]> data = store.read(name);
+                if (!data.isPresent()) continue;
+                Optional<TemplateCodec> reader = detectCodec(data.get());
+                if (!reader.isPresent()) return;
+                AssetStore.references(reader.get().toJson(data.get()), referenced);
+            }
+            int deleted = AssetStore.getDefault().sweep(referenced);
+            if (deleted > 0) Util.log("Deleted " + deleted + " unused assets.");
+        } catch (IOException | JsonParseException e) {
+            Util.logError(e);
+        }
+    }
+    
     public boolean removeTemplate(Template template) {
         return removeTemplate(template.getName());
     }
@@ -121,7 +215,11 @@ public class Catalog {
     public boolean removeTemplate(String name) {
         if (templateExists(name)) {
             // TODO check if template is open. close it
-            data.remove(name);
+            try {
+                store.remove(name);
+            } catch (IOException e) {
+                Dialogs.exception("Unable to delete template.", null, e);
+            }
             callback();
             return true;
         }
@@ -129,14 +227,19 @@ public class Catalog {
     }
     
     public boolean templateExists(String name) {
-        return data.keySet().contains(name);
+        return store != null && store.contains(name);
     }
     
+    // Templates are read from the store each time, only the index is kept in memory.
     public Optional<Template> loadTemplate(String name) {
         if (!templateExists(name)) return Optional.empty();
         try {
-            return Optional.ofNullable(gson.fromJson(data.get(name), Template.class));
-        } catch (JsonSyntaxException e) {
+            Optional<byte[]> data = store.read(name);
+            if (!data.isPresent()) return Optional.empty();
+            Optional<TemplateCodec> reader = detectCodec(data.get());
+            if (!reader.isPresent()) throw new IOException("Template '" + name + "' is in an unknown format.");
+            return Optional.ofNullable(reader.get().decode(data.get()));
+        } catch (IOException | JsonParseException e) {
             Dialogs.exception("Unable to load template.", null, e);
             return Optional.empty();
         }
@@ -146,19 +249,36 @@ public class Catalog {
         if (template.getName().isEmpty()) {
             return;
         }
-        data.add(template.getName(), gson.toJsonTree(template, Template.class));
-        saveData();
+        byte[] data;
+        try {
+            data = codec.encode(template);
+        } catch (IOException | JsonParseException e) {
+            Dialogs.exception("Unable to save template.", null, e);
+            return;
+        }
+        if (!store(template.getName(), data, template.getModules().size())) return;
         callback();
     }
     
+    // Templates are written as soon as they change, this only updates the index.
     public void saveData() {
+        if (store == null) return;
         try {
-            Files.write(TEMPLATE_PATH, data.toString().getBytes());
+            store.flush();
         } catch (IOException e) {
             Dialogs.exception("Unable to save template.", null, e);
         }
     }
     
+    public void close() {
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            Util.logError(e);
+        }
+    }
+    
     public Set<String> getModules() {
         return modules.keySet();
     }
@@ -27,6 +27,13 @@ public abstract class Effect extends Layer {
         moduleProperty().set(module);
     }
     
+    @Override
+    public void markDirty() {
+        super.markDirty();
+        Module module = getModule();
+        if (module != null) module.markDirty();
+    }
+    
     public abstract void apply(CanvasLayer canvas, Node node, boolean editor) throws SilentFailException;
     
     public abstract void reset();
@@ -1,7 +1,142 @@
 package com.ssplugins.preedit.edit;
 
+import com.google.gson.JsonElement;
+import com.ssplugins.preedit.input.Input;
+import com.ssplugins.preedit.input.InputMap;
+import com.ssplugins.preedit.modules.ImageModule;
+import com.ssplugins.preedit.nodes.EditorCanvas;
+import com.ssplugins.preedit.util.Util;
+import javafx.scene.image.WritableImage;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// Renders images from a template without a visible stage.
+// Rendering is done on the FX thread, so the methods here should be called from a background thread.
 public class Generator {
     
     private Catalog catalog;
     
+    private Template template;
+    private EditorCanvas canvas;
+    private Map<String, Input> parameters = new LinkedHashMap<>();
+    
+    private AtomicLong rendered = new AtomicLong();
+    private AtomicLong failed = new AtomicLong();
+    private AtomicLong renderTime = new AtomicLong();
+    
+    public Generator(Catalog catalog) {
+        this.catalog = catalog;
+    }
+    
+    public static String parameterName(Module module, String input) {
+        return module.getDisplayName() + "/" + input;
+    }
+    
+    public static String parameterName(Module module, Effect effect, String input) {
+        return module.getDisplayName() + "/" + effect.getDisplayName() + "/" + input;
+    }
+    
+    public Catalog getCatalog() {
+        return catalog;
+    }
+    
+    public boolean loadTemplate(String name) {
+        Optional<Template> op = Util.runFXSafeFlat(() -> catalog.loadTemplate(name));
+        op.ifPresent(this::setTemplate);
+        return op.isPresent();
+    }
+    
+    public void setTemplate(Template template) {
+        Util.runFXSafe(() -> {
+            this.template = template;
+            template.setEditor(false);
+            // Images are only rendered at full resolution here, so don't decode a preview first.
+            template.setPreviewSize(0);
+            parameters.clear();
+            template.getModules().forEach(module -> {
+                // Load images synchronously so they are ready before the next render.
+                if (module instanceof ImageModule) ((ImageModule) module).setDelegate(ImageModule.Delegate.NONE);
+                addParameters(module.getInputs(), s -> parameterName(module, s));
+                module.getEffects().forEach(effect -> addParameters(effect.getInputs(), s -> parameterName(module, effect, s)));
+            });
+            canvas = new EditorCanvas(template.getWidth(), template.getHeight(), true);
+            canvas.setLayerCount(template.getModules().size());
+            canvas.setCanvasSize(template.getWidth(), template.getHeight());
+            return true;
+        });
+    }
+    
+    private void addParameters(InputMap map, Function<String, String> naming) {
+        map.sorted().forEach((s, input) -> {
+            if (!input.isUserProvided()) return;
+            String name = naming.apply(s);
+            int i = 2;
+            while (parameters.containsKey(name)) {
+                name = naming.apply(s) + " (" + i++ + ")";
+            }
+            parameters.put(name, input);
+        });
+    }
+    
+    public Optional<Template> getTemplate() {
+        return Optional.ofNullable(template);
+    }
+    
+    // Inputs marked as user provided, keyed by "layer/input" or "layer/effect/input".
+    public Map<String, Input> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+    
+    // Parameters missing from the map keep the value they had for the previous image.
+    public Optional<WritableImage> render(Map<String, JsonElement> values) {
+        if (template == null) return Optional.empty();
+        long start = System.nanoTime();
+        Util.runFXSafe(() -> {
+            values.forEach((s, element) -> {
+                Input input = parameters.get(s);
+                if (input != null) input.deserialize(element);
+            });
+            return true;
+        });
+        // Values are applied in a separate pass so image loads queued by the inputs finish first.
+        Optional<WritableImage> img = Util.runFXSafeFlat(() -> Util.renderImage(canvas, template.getRenderPlan()));
+        renderTime.addAndGet(System.nanoTime() - start);
+        if (img.isPresent()) rendered.incrementAndGet();
+        else failed.incrementAndGet();
+        return img;
+    }
+    
+    public long generate(Stream<Map<String, JsonElement>> values, BiConsumer<Long, Optional<WritableImage>> output) {
+        AtomicLong index = new AtomicLong();
+        values.forEachOrdered(map -> output.accept(index.getAndIncrement(), render(map)));
+        return index.get();
+    }
+    
+    public long getRendered() {
+        return rendered.get();
+    }
+    
+    public long getFailed() {
+        return failed.get();
+    }
+    
+    public double getImagesPerSecond() {
+        long time = renderTime.get();
+        if (time == 0) return 0;
+        return rendered.get() / (time / 1e9);
+    }
+    
+    public void resetStats() {
+        rendered.set(0);
+        failed.set(0);
+        renderTime.set(0);
+    }
+    
 }
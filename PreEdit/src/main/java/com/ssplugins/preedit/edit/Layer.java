@@ -1,7 +1,6 @@
 package com.ssplugins.preedit.edit;
 
 import com.ssplugins.preedit.gui.EditorTab;
-import com.ssplugins.preedit.input.Input;
 import com.ssplugins.preedit.input.InputMap;
 import com.ssplugins.preedit.util.Dialogs;
 import com.ssplugins.preedit.util.Util;
@@ -18,6 +17,7 @@ import java.util.Optional;
 public abstract class Layer {
     
     private boolean editor;
+    private boolean dirty = true;
     private InputMap inputs = new InputMap();
     private StringProperty displayName;
     
@@ -27,6 +27,7 @@ public abstract class Layer {
     protected Layer() {
         displayName = new SimpleStringProperty(getName());
         setupMenu();
+        inputs.addListener(this::markDirty);
         preload();
         defineInputs(inputs);
     }
@@ -66,7 +67,7 @@ public abstract class Layer {
     }
     
     public int userInputs() {
-        return (int) getInputs().getInputs().values().stream().filter(Input::isUserProvided).count();
+        return inputs.userProvidedCount();
     }
     
     public void setEditor(boolean editor) {
@@ -77,8 +78,21 @@ public abstract class Layer {
         return editor;
     }
     
+    // Dirty layers are redrawn on the next render.
+    public void markDirty() {
+        dirty = true;
+    }
+    
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    public void setClean() {
+        dirty = false;
+    }
+    
     public boolean isValid() {
-        return getInputs().getInputs().values().stream().allMatch(Input::isValid);
+        return inputs.isValid();
     }
     
     public final InputMap getInputs() {
@@ -4,6 +4,7 @@ import com.ssplugins.preedit.exceptions.SilentFailException;
 import com.ssplugins.preedit.nodes.ResizeHandle;
 import com.ssplugins.preedit.util.wrapper.ShiftList;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
 import javafx.geometry.Bounds;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
@@ -14,6 +15,11 @@ import javafx.util.Callback;
 public abstract class Module extends Layer {
     
     private ShiftList<Effect> effects = new ShiftList<>();
+    private int previewSize = Template.DEFAULT_PREVIEW_SIZE;
+    
+    protected Module() {
+        effects.addListener((ListChangeListener<Effect>) c -> markDirty());
+    }
     
     public abstract void linkResizeHandle(ResizeHandle handle);
     
@@ -23,9 +29,26 @@ public abstract class Module extends Layer {
     
     public void onMouseEvent(MouseEvent event, boolean editor) {}
     
+    // Called before the module is drawn. Previews are shown on screen, other renders are exported.
+    // Throwing fails the render instead of drawing the layer with what it has.
+    public void prepareRender(boolean preview) throws SilentFailException {}
+    
+    public int getPreviewSize() {
+        return previewSize;
+    }
+    
+    // Largest width or height images should be loaded at for previews. 0 always uses full resolution.
+    public void setPreviewSize(int previewSize) {
+        this.previewSize = previewSize;
+    }
+    
     @Override
     public int userInputs() {
-        return super.userInputs() + effects.stream().map(Layer::userInputs).reduce((x, y) -> x + y).orElse(0);
+        int count = super.userInputs();
+        for (int i = 0; i < effects.size(); i++) {
+            count += effects.get(i).userInputs();
+        }
+        return count;
     }
     
     @Override
@@ -34,9 +57,19 @@ public abstract class Module extends Layer {
         effects.forEach(effect -> effect.setEditor(editor));
     }
     
+    @Override
+    public void setClean() {
+        super.setClean();
+        effects.forEach(Layer::setClean);
+    }
+    
     @Override
     public boolean isValid() {
-        return super.isValid() && effects.stream().allMatch(Layer::isValid);
+        if (!super.isValid()) return false;
+        for (int i = 0; i < effects.size(); i++) {
+            if (!effects.get(i).isValid()) return false;
+        }
+        return true;
     }
     
     public final ShiftList<Effect> getEffects() {
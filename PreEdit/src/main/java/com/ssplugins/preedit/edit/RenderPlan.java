@@ -0,0 +1,60 @@
+package com.ssplugins.preedit.edit;
+
+import java.util.List;
+
+// Flattened form of a template's layers in the order they are drawn, bottom layer first.
+// Plans are only valid for the structure they were built from; Template builds a new one
+// when modules or effects are added, removed or moved.
+public class RenderPlan {
+    
+    private final Op[] ops;
+    
+    private RenderPlan(Op[] ops) {
+        this.ops = ops;
+    }
+    
+    public static RenderPlan of(List<Module> modules) {
+        Op[] ops = new Op[modules.size()];
+        int i = 0;
+        for (int m = modules.size() - 1; m >= 0; m--) {
+            ops[i++] = new Op(modules.get(m));
+        }
+        return new RenderPlan(ops);
+    }
+    
+    public int size() {
+        return ops.length;
+    }
+    
+    public Op get(int i) {
+        return ops[i];
+    }
+    
+    public static class Op {
+        
+        private final Module module;
+        private final NodeModule nodeModule;
+        private final Effect[] effects;
+        
+        private Op(Module module) {
+            this.module = module;
+            this.nodeModule = module instanceof NodeModule ? (NodeModule) module : null;
+            this.effects = module.getEffects().toArray(new Effect[0]);
+        }
+        
+        public Module getModule() {
+            return module;
+        }
+        
+        // Null if the module draws on the canvas instead of providing a node.
+        public NodeModule getNodeModule() {
+            return nodeModule;
+        }
+        
+        public Effect[] getEffects() {
+            return effects;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,176 @@
+package com.ssplugins.preedit.edit;
+
+import com.google.gson.JsonElement;
+import com.ssplugins.preedit.util.Util;
+import javafx.scene.image.WritableImage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+// Splits generation jobs across workers that each own a separate copy of the template.
+// Submitting blocks while the queue is full so a large manifest is never read ahead of the workers.
+// The scene graph work of each render still happens on the FX thread; loading inputs,
+// handling the output (encoding, writing files) and waiting on the FX thread overlap between workers.
+public class RenderPool {
+    
+    private static final Job END = new Job(-1, null);
+    
+    private Catalog catalog;
+    private String templateName;
+    private BlockingQueue<Job> queue;
+    private List<Worker> workers = new ArrayList<>();
+    private CountDownLatch finished;
+    
+    private BiConsumer<Long, Optional<WritableImage>> output;
+    private AtomicLong completed = new AtomicLong();
+    private long startTime;
+    private long endTime;
+    
+    public RenderPool(Catalog catalog, String templateName, int workers, int queueSize) {
+        this.catalog = catalog;
+        this.templateName = templateName;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            this.workers.add(new Worker(i));
+        }
+    }
+    
+    public RenderPool(Catalog catalog, String templateName, int workers) {
+        this(catalog, templateName, workers, workers * 4);
+    }
+    
+    // Loads a template instance for every worker and starts them. Returns false if the template could not be loaded.
+    public boolean start(BiConsumer<Long, Optional<WritableImage>> output) {
+        this.output = output;
+        for (Worker worker : workers) {
+            if (!worker.generator.loadTemplate(templateName)) return false;
+        }
+        finished = new CountDownLatch(workers.size());
+        completed.set(0);
+        startTime = System.nanoTime();
+        endTime = 0;
+        workers.forEach(worker -> {
+            Thread thread = new Thread(worker, "Render Worker " + worker.id);
+            thread.setDaemon(true);
+            thread.start();
+        });
+        return true;
+    }
+    
+    public void submit(long index, Map<String, JsonElement> values) throws InterruptedException {
+        queue.put(new Job(index, values));
+    }
+    
+    // Submits every row and waits for them to finish rendering. Returns the number of rows.
+    public long generate(Stream<Map<String, JsonElement>> values) throws InterruptedException {
+        long index = 0;
+        try {
+            Iterator<Map<String, JsonElement>> it = values.iterator();
+            while (it.hasNext()) {
+                submit(index++, it.next());
+            }
+        } finally {
+            finish();
+        }
+        return index;
+    }
+    
+    // Waits for queued jobs to finish and stops the workers.
+    public void finish() throws InterruptedException {
+        for (int i = 0; i < workers.size(); i++) {
+            queue.put(END);
+        }
+        finished.await();
+        endTime = System.nanoTime();
+    }
+    
+    public int getWorkerCount() {
+        return workers.size();
+    }
+    
+    public List<Generator> getGenerators() {
+        List<Generator> list = new ArrayList<>();
+        workers.forEach(worker -> list.add(worker.generator));
+        return Collections.unmodifiableList(list);
+    }
+    
+    public int getQueued() {
+        return queue.size();
+    }
+    
+    public long getCompleted() {
+        return completed.get();
+    }
+    
+    public long getRendered() {
+        return workers.stream().mapToLong(worker -> worker.generator.getRendered()).sum();
+    }
+    
+    public long getFailed() {
+        return workers.stream().mapToLong(worker -> worker.generator.getFailed()).sum();
+    }
+    
+    // Images per second across all workers, measured from when the pool was started.
+    public double getImagesPerSecond() {
+        if (startTime == 0) return 0;
+        long end = endTime == 0 ? System.nanoTime() : endTime;
+        double seconds = (end - startTime) / 1e9;
+        if (seconds <= 0) return 0;
+        return getRendered() / seconds;
+    }
+    
+    public double getImagesPerSecond(int worker) {
+        return workers.get(worker).generator.getImagesPerSecond();
+    }
+    
+    private static class Job {
+        private long index;
+        private Map<String, JsonElement> values;
+        
+        private Job(long index, Map<String, JsonElement> values) {
+            this.index = index;
+            this.values = values;
+        }
+    }
+    
+    private class Worker implements Runnable {
+        private int id;
+        private Generator generator;
+        
+        private Worker(int id) {
+            this.id = id;
+            this.generator = new Generator(catalog);
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Job job = queue.take();
+                    if (job == END) break;
+                    try {
+                        Optional<WritableImage> image = generator.render(job.values);
+                        if (output != null) output.accept(job.index, image);
+                    } catch (RuntimeException e) {
+                        Util.logError(e);
+                    }
+                    completed.incrementAndGet();
+                }
+            } catch (InterruptedException ignored) {
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+    
+}
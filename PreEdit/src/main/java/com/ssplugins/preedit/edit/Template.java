@@ -1,19 +1,37 @@
 package com.ssplugins.preedit.edit;
 
 import com.ssplugins.preedit.util.wrapper.ShiftList;
+import javafx.beans.InvalidationListener;
+import javafx.collections.ListChangeListener;
 
 public class Template {
     
+    public static final int DEFAULT_PREVIEW_SIZE = 2048;
+    
     private String name;
     private int width;
     private int height;
+    private int previewSize = DEFAULT_PREVIEW_SIZE;
     
     private ShiftList<Module> modules = new ShiftList<>();
     
+    private RenderPlan plan;
+    private InvalidationListener invalidate = observable -> plan = null;
+    
     public Template(String name, int width, int height) {
         this.name = name;
         this.width = width;
         this.height = height;
+        modules.addListener((ListChangeListener<Module>) c -> {
+            plan = null;
+            while (c.next()) {
+                c.getRemoved().forEach(module -> module.getEffects().removeListener(invalidate));
+                c.getAddedSubList().forEach(module -> {
+                    module.getEffects().addListener(invalidate);
+                    module.setPreviewSize(previewSize);
+                });
+            }
+        });
     }
     
     public String getName() {
@@ -32,10 +50,26 @@ public class Template {
         return height;
     }
     
+    public int getPreviewSize() {
+        return previewSize;
+    }
+    
+    // Images are shown scaled down to fit in this size while editing, and rendered at full resolution when exported.
+    public void setPreviewSize(int previewSize) {
+        this.previewSize = Math.max(0, previewSize);
+        modules.forEach(module -> module.setPreviewSize(this.previewSize));
+    }
+    
     public ShiftList<Module> getModules() {
         return modules;
     }
     
+    // Built on the first render after the modules or effects of the template change.
+    public RenderPlan getRenderPlan() {
+        if (plan == null) plan = RenderPlan.of(modules);
+        return plan;
+    }
+    
     public void addModule(Module module) {
         modules.add(module);
     }
@@ -0,0 +1,463 @@
+package com.ssplugins.preedit.edit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ssplugins.preedit.util.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Templates stored as records appended to a single file.
+// Saving a template appends one record, so it costs the same no matter how large the rest of the library is.
+// Replaced and deleted records stay in the file until they take up more space than the live ones,
+// then the live records are copied to a new file on a background thread.
+// Opening the store only reads the index, so startup does not depend on how much template data there is.
+// Records added after the index was written are found by scanning record headers from where it ends.
+public class TemplateStore implements Closeable {
+    
+    // Header: magic, format version and generation. Record: magic, name length, name, module count, data length and data.
+    private static final int FILE_MAGIC = 0x50454453;
+    private static final int VERSION = 2;
+    private static final int RECORD_MAGIC = 0x50455452;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER = 16;
+    // The first format had no version in the header and no module count in records.
+    private static final int V1_MAGIC = 0x50454454;
+    private static final int V1_HEADER_SIZE = 12;
+    private static final int V1_RECORD_HEADER = 12;
+    private static final long COMPACT_MIN = 1024 * 1024;
+    private static final int COMPACT_ATTEMPTS = 5;
+    private static final long COMPACT_BACKOFF = 500;
+    
+    private Path logPath;
+    private Path indexPath;
+    private FileChannel log;
+    private long generation;
+    private int version = VERSION;
+    
+    private Map<String, Info> entries = new LinkedHashMap<>();
+    private long garbage;
+    private boolean indexed;
+    private AtomicBoolean compacting = new AtomicBoolean();
+    private volatile Runnable compactionListener;
+    
+    public TemplateStore(Path directory, String name) throws IOException {
+        this.logPath = directory.resolve(name + ".db");
+        this.indexPath = directory.resolve(name + ".idx");
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = log.size();
+        int magic = size >= 4 ? read(0, 4).getInt() : 0;
+        if (size < 4 || (magic == FILE_MAGIC && size < HEADER_SIZE) || (magic == V1_MAGIC && size < V1_HEADER_SIZE)) {
+            // New file, or one whose header was never completely written.
+            log.truncate(0);
+            generation = System.currentTimeMillis();
+            writeHeader(log, generation);
+            log.force(true);
+        }
+        else if (magic == V1_MAGIC) {
+            version = 1;
+            generation = read(4, 8).getLong();
+            scan(V1_HEADER_SIZE);
+            upgrade();
+            return;
+        }
+        else if (magic == FILE_MAGIC) {
+            ByteBuffer header = read(4, HEADER_SIZE - 4);
+            int fileVersion = header.getInt();
+            if (fileVersion != VERSION) throw new IOException("Template store " + logPath + " has format version " + fileVersion + ", which is not supported.");
+            generation = header.getLong();
+        }
+        else {
+            throw new IOException("Not a template store: " + logPath);
+        }
+        long start = readIndex();
+        if (scan(start) != start || !indexed) writeIndex();
+    }
+    
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(FILE_MAGIC).putInt(VERSION).putLong(generation).flip();
+        while (header.hasRemaining()) channel.write(header, channel.position());
+        channel.position(HEADER_SIZE);
+    }
+    
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of template store.");
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    // Returns the position in the log the index is valid up to.
+    private long readIndex() {
+        indexed = false;
+        if (!Files.exists(indexPath)) return HEADER_SIZE;
+        try {
+            JsonElement parsed = new JsonParser().parse(new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8));
+            if (!parsed.isJsonObject()) return HEADER_SIZE;
+            JsonObject index = parsed.getAsJsonObject();
+            if (!hasNumbers(index, "generation", "length", "garbage") || !index.has("templates") || !index.get("templates").isJsonArray()) return HEADER_SIZE;
+            long length = index.get("length").getAsLong();
+            if (index.get("generation").getAsLong() != generation || length > log.size()) return HEADER_SIZE;
+            Map<String, Info> map = new LinkedHashMap<>();
+            for (JsonElement element : index.getAsJsonArray("templates")) {
+                if (!element.isJsonObject()) return HEADER_SIZE;
+                JsonObject o = element.getAsJsonObject();
+                if (!hasNumbers(o, "offset", "size", "length", "modules") || !o.has("name") || !o.get("name").isJsonPrimitive()) return HEADER_SIZE;
+                String name = o.get("name").getAsString();
+                map.put(name, new Info(name, o.get("offset").getAsLong(), o.get("size").getAsInt(), o.get("length").getAsInt(), o.get("modules").getAsInt()));
+            }
+            entries = map;
+            garbage = index.get("garbage").getAsLong();
+            indexed = true;
+            return length;
+        } catch (IOException | JsonParseException e) {
+            return HEADER_SIZE;
+        }
+    }
+    
+    private static boolean hasNumbers(JsonObject object, String... names) {
+        for (String name : names) {
+            JsonElement element = object.get(name);
+            if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber()) return false;
+        }
+        return true;
+    }
+    
+    // Reads records from the position to the end of the log. A partly written record at the end is removed.
+    // Damaged data in the middle is skipped and reported, so the records after it are kept.
+    private long scan(long position) throws IOException {
+        long size = log.size();
+        while (position < size) {
+            Info record = readRecord(position, size);
+            if (record == null) {
+                long next = findRecord(position + 1, size);
+                if (next < 0) break;
+                reportDamage(position, next);
+                garbage += next - position;
+                position = next;
+                continue;
+            }
+            Info old = record.length < 0 ? entries.remove(record.name) : entries.put(record.name, record);
+            if (old != null) garbage += old.size;
+            if (record.length < 0) garbage += record.size;
+            position += record.size;
+        }
+        if (position < size) {
+            log.truncate(position);
+            log.force(true);
+        }
+        return position;
+    }
+    
+    // Size of a record header without the name, in the format of the open log.
+    private int recordHeader() {
+        return version == 1 ? V1_RECORD_HEADER : RECORD_HEADER;
+    }
+    
+    // The record at the position, or null if there isn't a complete record there.
+    private Info readRecord(long position, long size) throws IOException {
+        int recordHeader = recordHeader();
+        if (position + recordHeader > size) return null;
+        ByteBuffer header = read(position, 8);
+        if (header.getInt() != RECORD_MAGIC) return null;
+        int nameLength = header.getInt();
+        if (nameLength < 0 || nameLength > size - position - recordHeader) return null;
+        String name = new String(read(position + 8, nameLength).array(), StandardCharsets.UTF_8);
+        int modules = -1;
+        int length;
+        if (version == 1) {
+            length = read(position + 8 + nameLength, 4).getInt();
+        }
+        else {
+            ByteBuffer counts = read(position + 8 + nameLength, 8);
+            modules = counts.getInt();
+            length = counts.getInt();
+        }
+        if (length < -1) return null;
+        long recordSize = (long) recordHeader + nameLength + Math.max(0, length);
+        if (recordSize > size - position || recordSize > Integer.MAX_VALUE) return null;
+        return new Info(name, position, (int) recordSize, length, modules);
+    }
+    
+    // Start of the next complete record at or after the position, or -1 if there is none.
+    private long findRecord(long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (position + recordHeader() <= size) {
+            buffer.clear();
+            int read = log.read(buffer, position);
+            if (read < 4) return -1;
+            for (int i = 0; i + 4 <= read; i++) {
+                if (buffer.getInt(i) == RECORD_MAGIC && readRecord(position + i, size) != null) return position + i;
+            }
+            position += read - 3;
+        }
+        return -1;
+    }
+    
+    // Keeps a copy of the damaged log, since compaction drops the skipped bytes.
+    private void reportDamage(long start, long end) throws IOException {
+        Util.log("Skipped damaged data in " + logPath + " from byte " + start + " to " + end + ".");
+        Path backup = logPath.resolveSibling(logPath.getFileName() + ".damaged");
+        if (!Files.exists(backup)) Files.copy(logPath, backup);
+    }
+    
+    private void writeIndex() throws IOException {
+        JsonObject index = new JsonObject();
+        index.addProperty("generation", generation);
+        index.addProperty("length", log.size());
+        index.addProperty("garbage", garbage);
+        JsonArray list = new JsonArray();
+        entries.forEach((name, entry) -> {
+            JsonObject o = new JsonObject();
+            o.addProperty("name", name);
+            o.addProperty("offset", entry.offset);
+            o.addProperty("size", entry.size);
+            o.addProperty("length", entry.length);
+            o.addProperty("modules", entry.modules);
+            list.add(o);
+        });
+        index.add("templates", list);
+        Path temp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        Files.write(temp, index.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexed = true;
+    }
+    
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(entries.keySet()));
+    }
+    
+    public synchronized boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+    
+    public synchronized Optional<Info> getInfo(String name) {
+        return Optional.ofNullable(entries.get(name));
+    }
+    
+    public synchronized Optional<byte[]> read(String name) throws IOException {
+        Info entry = entries.get(name);
+        if (entry == null) return Optional.empty();
+        return Optional.of(read(entry.offset + entry.size - entry.length, entry.length).array());
+    }
+    
+    // The record is on disk when this returns. A crash while writing leaves the previous version in place.
+    public synchronized void write(String name, byte[] data, int modules) throws IOException {
+        Info entry = append(name, data, modules);
+        Info old = entries.put(name, entry);
+        if (old != null) garbage += old.size;
+        compactIfNeeded();
+    }
+    
+    public synchronized boolean remove(String name) throws IOException {
+        if (!entries.containsKey(name)) return false;
+        Info tombstone = append(name, null, 0);
+        garbage += entries.remove(name).size + tombstone.size;
+        compactIfNeeded();
+        return true;
+    }
+    
+    private Info append(String name, byte[] body, int modules) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = body == null ? -1 : body.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + nameBytes.length + Math.max(0, length));
+        record.putInt(RECORD_MAGIC).putInt(nameBytes.length).put(nameBytes).putInt(modules).putInt(length);
+        if (body != null) record.put(body);
+        record.flip();
+        long position = log.size();
+        while (record.hasRemaining()) {
+            position += log.write(record, position);
+        }
+        log.force(false);
+        indexed = false;
+        return new Info(name, position - record.limit(), record.limit(), length, modules);
+    }
+    
+    // Writes the index if records were added since it was last written.
+    public synchronized void flush() throws IOException {
+        if (!indexed) writeIndex();
+    }
+    
+    public synchronized long getLiveBytes() {
+        return entries.values().stream().mapToLong(entry -> entry.size).sum();
+    }
+    
+    public synchronized long getGarbageBytes() {
+        return garbage;
+    }
+    
+    private synchronized boolean needsCompaction() {
+        return garbage >= COMPACT_MIN && garbage >= getLiveBytes();
+    }
+    
+    private void compactIfNeeded() {
+        if (!needsCompaction()) return;
+        if (!compacting.compareAndSet(false, true)) return;
+        Thread thread = new Thread(() -> {
+            try {
+                // Saves arriving during a copy make it start over, so back off and give up after a few tries.
+                // The next save that finds too much garbage starts another attempt.
+                for (int i = 1; i <= COMPACT_ATTEMPTS && needsCompaction(); i++) {
+                    if (compact()) {
+                        Runnable listener = compactionListener;
+                        if (listener != null) listener.run();
+                        break;
+                    }
+                    Thread.sleep(COMPACT_BACKOFF * i);
+                }
+            } catch (IOException e) {
+                Util.logError(e);
+            } catch (InterruptedException ignored) {
+            } finally {
+                compacting.set(false);
+            }
+        }, "Template Compaction");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    // Runs on the compaction thread each time the log was compacted in the background.
+    public void setCompactionListener(Runnable compactionListener) {
+        this.compactionListener = compactionListener;
+    }
+    
+    // Rewrites a version 1 log in the current format. The old file is kept next to it as .v1.
+    // Templates saved in version 1 have a module count of -1 until they are saved again.
+    private void upgrade() throws IOException {
+        Files.copy(logPath, logPath.resolveSibling(logPath.getFileName() + ".v1"), StandardCopyOption.REPLACE_EXISTING);
+        if (!compact()) throw new IOException("Template store changed while it was being upgraded: " + logPath);
+        Util.log("Upgraded " + logPath + " to format version " + VERSION + ".");
+    }
+    
+    // Copies the live records to a new file and swaps it in.
+    // Records are never changed once written, so copying does not need to block saves.
+    // If anything was saved in the meantime, the copy is thrown away and false is returned.
+    // Only runs on the compaction thread, or while opening the store, so the log is not swapped during the copy.
+    private boolean compact() throws IOException {
+        Map<String, Info> snapshot;
+        long length;
+        int sourceVersion;
+        FileChannel source;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+            length = log.size();
+            sourceVersion = version;
+            source = log;
+        }
+        Path temp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        long newGeneration = System.currentTimeMillis();
+        Map<String, Info> moved = new LinkedHashMap<>();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(out, newGeneration);
+            for (Info entry : snapshot.values()) {
+                long offset = out.position();
+                int size = entry.size;
+                if (sourceVersion == VERSION) {
+                    transfer(source, entry.offset, entry.size, out);
+                }
+                else {
+                    // Older records get a new header. The template data is copied unchanged.
+                    byte[] nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER + nameBytes.length);
+                    header.putInt(RECORD_MAGIC).putInt(nameBytes.length).put(nameBytes).putInt(entry.modules).putInt(entry.length).flip();
+                    while (header.hasRemaining()) out.write(header);
+                    transfer(source, entry.offset + entry.size - entry.length, entry.length, out);
+                    size = header.limit() + entry.length;
+                }
+                moved.put(entry.name, new Info(entry.name, offset, size, entry.length, entry.modules));
+            }
+            out.force(true);
+        }
+        synchronized (this) {
+            if (log.size() != length) {
+                Files.deleteIfExists(temp);
+                return false;
+            }
+            log.close();
+            try {
+                Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // The old log is still in place, so keep using it.
+                Files.deleteIfExists(temp);
+                throw e;
+            } finally {
+                log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            generation = newGeneration;
+            version = VERSION;
+            entries = moved;
+            garbage = 0;
+            writeIndex();
+            return true;
+        }
+    }
+    
+    private static void transfer(FileChannel source, long position, long count, FileChannel out) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            copied += source.transferTo(position + copied, count - copied, out);
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        log.close();
+    }
+    
+    public static class Info {
+        private String name;
+        // Start of the record, size of the whole record and length of the template data at the end of it.
+        private long offset;
+        private int size;
+        private int length;
+        private int modules;
+        
+        private Info(String name, long offset, int size, int length, int modules) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+            this.length = length;
+            this.modules = modules;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public long getOffset() {
+            return offset;
+        }
+        
+        // Size of the template data in bytes.
+        public int getLength() {
+            return length;
+        }
+        
+        // -1 for templates saved before module counts were stored.
+        public int getModuleCount() {
+            return modules;
+        }
+    }
+    
+}
@@ -29,13 +29,13 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Bounds;
+import javafx.geometry.Dimension2D;
 import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.*;
 import javafx.scene.layout.*;
@@ -43,7 +43,6 @@ import javafx.scene.paint.Color;
 import javafx.stage.Popup;
 import javafx.stage.Stage;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -105,7 +104,8 @@ public class EditorTab extends BorderPane implements PreEditTab {
         state = new State();
         state.setRenderCall(() -> {
             try {
-                canvas.renderImage(true, layers.getItems(), editControls);
+                if (state.getTemplate() != null) canvas.renderImage(true, state.getTemplate().getRenderPlan(), editControls);
+                else canvas.renderImage(true, layers.getItems(), editControls);
             } catch (SilentFailException ignored) {
                 //				Dialogs.exception("debug", null, ignored);
             }
@@ -421,7 +421,7 @@ public class EditorTab extends BorderPane implements PreEditTab {
                         image.setDelegate(ImageModule.Delegate.NOT_NEXT);
                         image.setFile(file);
                         Platform.runLater(() -> {
-                            Optional<Image> img = image.getImage();
+                            Optional<Dimension2D> img = image.getImageSize();
                             if (!img.isPresent()) {
                                 Dialogs.show("Unable to load input image.", null, AlertType.WARNING);
                             }
@@ -745,12 +745,12 @@ public class EditorTab extends BorderPane implements PreEditTab {
     
     private Optional<WritableImage> renderRaw() {
         if (state.getTemplate() == null) return Optional.empty();
-        return Util.renderImage(canvas, state.getTemplate().getModules());
+        return Util.renderImage(canvas, state.getTemplate().getRenderPlan());
     }
     
     private Optional<BufferedImage> renderPNG() {
         if (state.getTemplate() == null) return Optional.empty();
-        return Util.renderImage(canvas, state.getTemplate().getModules()).map(image -> SwingFXUtils.fromFXImage(image, null));
+        return Util.renderImage(canvas, state.getTemplate().getRenderPlan()).map(image -> SwingFXUtils.fromFXImage(image, null));
     }
     
     private void exportImage(File out) {
@@ -767,13 +767,7 @@ public class EditorTab extends BorderPane implements PreEditTab {
     
     public static void saveImage(File out, BufferedImage image) {
         try {
-            BufferedImage bi = image;
-            int i = out.getName().lastIndexOf('.');
-            String format = out.getName().substring(i + 1);
-            if (format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg")) {
-                bi = Util.fixJPG(bi);
-            }
-            boolean png = ImageIO.write(bi, format, out);
+            boolean png = Util.writeImage(out, image);
             if (!png) {
                 Dialogs.show("Invalid file extension.", null, AlertType.WARNING);
             }
@@ -62,6 +62,6 @@ public class CheckboxInput extends Input<CheckBox, Boolean> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(getNode().selectedProperty());
+        undoHistory.createTrigger().auto(getNode().selectedProperty(), getUndoMergeWindow());
     }
 }
@@ -84,6 +84,6 @@ public class ChoiceInput<T> extends Input<ComboBox<T>, T> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(getNode().valueProperty());
+        undoHistory.createTrigger().auto(getNode().valueProperty(), getUndoMergeWindow());
     }
 }
@@ -67,6 +67,6 @@ public class ColorInput extends Input<ColorPicker, Color> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(getNode().valueProperty());
+        undoHistory.createTrigger().auto(getNode().valueProperty(), getUndoMergeWindow());
     }
 }
@@ -15,6 +15,8 @@ public class DataInput<T> extends Input<Node, T> {
     public DataInput(JsonConverter<T> converter) {
         this.converter = converter;
         this.t = new SimpleObjectProperty<>();
+        // The property is usually bound to a module, so it changes without an update trigger.
+        t.addListener(observable -> invalidateValue());
         this.ready();
     }
     
@@ -24,6 +24,8 @@ public class FileInput extends Input<GridMap, File> {
     Label label;
     
     public FileInput() {
+        // The chosen file can be deleted or moved at any time.
+        setAlwaysValidate(true);
         this.ready();
     }
     
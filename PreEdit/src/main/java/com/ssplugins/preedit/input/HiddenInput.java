@@ -5,9 +5,12 @@ import com.ssplugins.preedit.util.calc.UndoHistory;
 import com.ssplugins.preedit.util.data.JsonConverter;
 import javafx.scene.Node;
 
+import java.util.Optional;
+
 public class HiddenInput extends Input<Node, Void> {
     
     private Runnable update;
+    private UndoHistory.UndoTrigger undoTrigger;
     
     public HiddenInput() {
         this.ready();
@@ -17,6 +20,11 @@ public class HiddenInput extends Input<Node, Void> {
         if (update != null) update.run();
     }
     
+    // Lets modules submit their own undo steps once the input is linked to a history.
+    public Optional<UndoHistory.UndoTrigger> getUndoTrigger() {
+        return Optional.ofNullable(undoTrigger);
+    }
+    
     @Override
     protected Node createInputNode() {
         return null;
@@ -49,6 +57,6 @@ public class HiddenInput extends Input<Node, Void> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        //
+        undoTrigger = undoHistory.createTrigger();
     }
 }
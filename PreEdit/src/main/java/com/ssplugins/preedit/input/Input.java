@@ -13,7 +13,11 @@ import javafx.beans.property.SimpleBooleanProperty;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -26,8 +30,20 @@ public abstract class Input<N extends Node, O> implements Comparable<Input> {
     private JsonConverter<O> converter;
     private boolean ready, gen, init, undoSetup, loaded;
     private int order = -1;
+    private long undoMergeWindow;
     private BooleanProperty userProvided = new SimpleBooleanProperty(false);
     private Runnable update;
+    private List<Runnable> changeListeners = new ArrayList<>();
+    
+    // Value read from the node the last time it changed, or null if it wasn't valid.
+    // Render workers read it too. It is up to date while validated matches the number of changes.
+    private volatile O value;
+    private AtomicInteger changes = new AtomicInteger();
+    private volatile int validated = -1;
+    private boolean alwaysValidate;
+    // Validity shown by the display node. It is only updated on the FX thread when it flips.
+    private volatile boolean valid = true;
+    private AtomicBoolean validityQueued = new AtomicBoolean();
     
     protected abstract N createInputNode();
     
@@ -55,9 +71,16 @@ public abstract class Input<N extends Node, O> implements Comparable<Input> {
             });
         }
         this.converter = getJsonConverter();
+        setUpdateTrigger(node, this::changed);
         getValue(); // Will mark the input invalid if the default value isn't valid
     }
     
+    private void changed() {
+        changes.incrementAndGet();
+        changeListeners.forEach(Runnable::run);
+        if (update != null) update.run();
+    }
+    
     public final int getOrder() {
         return order;
     }
@@ -113,9 +136,23 @@ public abstract class Input<N extends Node, O> implements Comparable<Input> {
         }
     }
     
+    // Replaces the previous trigger.
     public final void setUpdateTrigger(Runnable update) {
         this.update = update;
-        setUpdateTrigger(node, update);
+    }
+    
+    // Runs whenever the value changes, in addition to the update trigger.
+    public final void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+    
+    // Changes closer together than this many milliseconds are undone as one step. 0 disables merging.
+    public final long getUndoMergeWindow() {
+        return undoMergeWindow;
+    }
+    
+    public final void setUndoMergeWindow(long undoMergeWindow) {
+        this.undoMergeWindow = undoMergeWindow;
     }
     
     public final void linkUndoHistory(UndoHistory undoHistory) {
@@ -154,22 +191,45 @@ public abstract class Input<N extends Node, O> implements Comparable<Input> {
     }
     
     public final Optional<O> getValue() {
+        return Optional.ofNullable(getValidValue());
+    }
+    
+    // Same as getValue, without the Optional. Null if the value isn't valid.
+    public final O getValidValue() {
+        if (alwaysValidate || validated != changes.get()) return validate();
+        return value;
+    }
+    
+    // A change made while this runs leaves the value out of date, so it is read again next time.
+    private synchronized O validate() {
+        int seen = changes.get();
+        O o;
         try {
-            O o = getNodeValue(node);
-            if (isValid(o)) {
-                setValid(true);
-                return Optional.ofNullable(o);
-            }
-            setValid(false);
-            return Optional.empty();
+            o = getNodeValue(node);
+            if (!isValid(o)) o = null;
         } catch (InvalidInputException e) {
-            setValid(false);
-            return Optional.empty();
+            o = null;
         }
+        value = o;
+        validated = seen;
+        setValid(o != null);
+        return o;
+    }
+    
+    // For subclasses whose value or validity can change without the update trigger running.
+    protected final void invalidateValue() {
+        changes.incrementAndGet();
+    }
+    
+    // For subclasses whose validity depends on something outside the input, like a file existing.
+    // The value is then validated every time it is read instead of being cached.
+    protected final void setAlwaysValidate(boolean alwaysValidate) {
+        this.alwaysValidate = alwaysValidate;
     }
     
     public final void setValue(O o) {
         setNodeValue(node, o);
+        changes.incrementAndGet();
     }
     
     public final void setDefaultValue(O o) {
@@ -192,11 +252,19 @@ public abstract class Input<N extends Node, O> implements Comparable<Input> {
     }
     
     public final boolean isValid() {
-        return getValue().isPresent();
+        return getValidValue() != null;
     }
     
     private void setValid(boolean valid) {
-        if (displayNode != null) displayNode.setValid(valid);
+        if (this.valid == valid) return;
+        this.valid = valid;
+        if (displayNode == null) return;
+        // Flips that happen before the FX thread gets to it are shown as one update.
+        if (!validityQueued.compareAndSet(false, true)) return;
+        Platform.runLater(() -> {
+            validityQueued.set(false);
+            displayNode.setValid(this.valid);
+        });
     }
     
     @Override
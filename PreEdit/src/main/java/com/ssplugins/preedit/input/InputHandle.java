@@ -0,0 +1,32 @@
+package com.ssplugins.preedit.input;
+
+import com.ssplugins.preedit.exceptions.SilentFailException;
+
+// An input looked up once, so the value can be read on every render without searching the map.
+public class InputHandle<T> {
+    
+    private final Input<?, T> input;
+    
+    public InputHandle(Input<?, T> input) {
+        this.input = input;
+    }
+    
+    public Input<?, T> getInput() {
+        return input;
+    }
+    
+    public T get() throws SilentFailException {
+        T value = input.getValidValue();
+        if (value == null) throw new SilentFailException();
+        return value;
+    }
+    
+    public void set(T value) {
+        input.setValue(value);
+    }
+    
+    public boolean isValid() {
+        return input.isValid();
+    }
+    
+}
@@ -1,7 +1,6 @@
 package com.ssplugins.preedit.input;
 
 import com.ssplugins.preedit.exceptions.SilentFailException;
-import com.ssplugins.preedit.util.Util;
 import com.ssplugins.preedit.util.data.Range;
 import javafx.beans.property.Property;
 
@@ -11,6 +10,9 @@ import java.util.Map.Entry;
 public class InputMap {
     
     private Map<String, Input<?, ?>> inputs = new HashMap<>();
+    // Copy of the values for looping without an iterator.
+    private Input<?, ?>[] array = new Input<?, ?>[0];
+    private List<Runnable> listeners = new ArrayList<>();
     
     public InputMap() {}
     
@@ -29,7 +31,18 @@ public class InputMap {
     public <I extends Input> void addInput(String name, I input) {
         if (!input.isReady()) throw new IllegalArgumentException("Invalid input element. (Not ready)");
         inputs.put(name, input);
+        array = inputs.values().toArray(new Input<?, ?>[0]);
         if (input.getOrder() == -1) input.setOrder(inputs.size());
+        input.addChangeListener(this::changed);
+    }
+    
+    // Runs when the value of any input in this map changes.
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+    
+    private void changed() {
+        listeners.forEach(Runnable::run);
     }
     
     public Map<String, Input> getInputs() {
@@ -44,8 +57,32 @@ public class InputMap {
         return getInput(name).filter(input -> type.isAssignableFrom(input.getClass())).map(type::cast);
     }
     
+    // Resolve inputs that are read on every render once with this, and read them through the handle.
+    public <T> Optional<InputHandle<T>> getHandle(String name, Class<? extends Input<?, T>> type) {
+        return getInput(name, type).map(InputHandle::new);
+    }
+    
     public <T> T getValue(String name, Class<? extends Input<?, T>> type) throws SilentFailException {
-        return getInput(name, type).flatMap(Input::getValue).orElseThrow(Util.silentFail());
+        Input<?, ?> input = inputs.get(name);
+        if (input == null || !type.isInstance(input)) throw new SilentFailException();
+        T value = type.cast(input).getValidValue();
+        if (value == null) throw new SilentFailException();
+        return value;
+    }
+    
+    public boolean isValid() {
+        for (Input<?, ?> input : array) {
+            if (!input.isValid()) return false;
+        }
+        return true;
+    }
+    
+    public int userProvidedCount() {
+        int count = 0;
+        for (Input<?, ?> input : array) {
+            if (input.isUserProvided()) count++;
+        }
+        return count;
     }
     
     public <T> void setValue(String name, Class<? extends Input<?, T>> type, T value) {
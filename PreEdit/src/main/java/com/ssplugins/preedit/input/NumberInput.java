@@ -21,6 +21,7 @@ public class NumberInput extends Input<NumberField, Number> {
     public NumberInput(boolean decimal) {
         this.decimal = decimal;
         this.ready();
+        setUndoMergeWindow(750);
         this.setSlideAction((node, initial, dx) -> {
             dx *= step;
             node.setNumber(initial + dx);
@@ -98,6 +99,6 @@ public class NumberInput extends Input<NumberField, Number> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(getNode().numberProperty());
+        undoHistory.createTrigger().auto(getNode().numberProperty(), getUndoMergeWindow());
     }
 }
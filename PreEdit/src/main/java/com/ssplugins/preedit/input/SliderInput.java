@@ -21,6 +21,7 @@ public class SliderInput extends Input<GridPane, Number> {
     public SliderInput() {
         range = new SimpleObjectProperty<>(Range.from(0, 1));
         this.ready();
+        setUndoMergeWindow(750);
     }
     
     public void setRange(Range range) {
@@ -79,7 +80,7 @@ public class SliderInput extends Input<GridPane, Number> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(slider.valueProperty());
+        undoHistory.createTrigger().auto(slider.valueProperty(), getUndoMergeWindow());
     }
     
 }
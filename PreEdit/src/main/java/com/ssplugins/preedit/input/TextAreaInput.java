@@ -12,6 +12,7 @@ public class TextAreaInput extends Input<TextArea, String> {
     public TextAreaInput(boolean emptyAllowed) {
         this.emptyAllowed = emptyAllowed;
         this.ready();
+        setUndoMergeWindow(1000);
     }
     
     public StringProperty textProperty() {
@@ -52,6 +53,6 @@ public class TextAreaInput extends Input<TextArea, String> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(getNode().textProperty());
+        undoHistory.createTrigger().auto(getNode().textProperty(), getUndoMergeWindow());
     }
 }
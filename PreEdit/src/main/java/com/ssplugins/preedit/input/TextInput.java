@@ -12,6 +12,7 @@ public class TextInput extends Input<TextField, String> {
     public TextInput(boolean emptyAllowed) {
         this.emptyAllowed = emptyAllowed;
         this.ready();
+        setUndoMergeWindow(1000);
     }
     
     public StringProperty textProperty() {
@@ -51,6 +52,6 @@ public class TextInput extends Input<TextField, String> {
     
     @Override
     protected void addUndoTrigger(UndoHistory undoHistory) {
-        undoHistory.createTrigger().auto(getNode().textProperty());
+        undoHistory.createTrigger().auto(getNode().textProperty(), getUndoMergeWindow());
     }
 }
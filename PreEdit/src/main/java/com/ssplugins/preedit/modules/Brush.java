@@ -7,8 +7,11 @@ import com.ssplugins.preedit.gui.EditorTab;
 import com.ssplugins.preedit.input.*;
 import com.ssplugins.preedit.nodes.ResizeHandle;
 import com.ssplugins.preedit.util.Util;
+import com.ssplugins.preedit.util.calc.TileUndo;
 import com.ssplugins.preedit.util.data.Range;
-import com.ssplugins.preedit.util.wrapper.SafePixelWriter;
+import com.ssplugins.preedit.util.data.Raster;
+import com.ssplugins.preedit.util.data.Stroke;
+import com.ssplugins.preedit.util.data.TileMap;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleIntegerProperty;
@@ -19,21 +22,34 @@ import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 
+import java.util.Map;
+
 public class Brush extends Module {
     
-    private ObjectProperty<WritableImage> image;
+    private ObjectProperty<TileMap> tiles;
+    private Stroke stroke = new Stroke();
+    private boolean strokeEnded;
     private ObjectProperty<Mode> mode;
+    private InputHandle<Number> size;
+    private InputHandle<Color> color;
+    private HiddenInput hidden;
     
     private boolean circle;
     private IntegerProperty cx, cy;
     
     @Override
     protected void preload() {
-        image = new SimpleObjectProperty<>();
+        tiles = new SimpleObjectProperty<>();
+        tiles.addListener((observable, oldValue, newValue) -> {
+            stroke.clear();
+            strokeEnded = false;
+            // Replacing the tiles doesn't go through an update trigger, so the layer has to be redrawn here.
+            markDirty();
+        });
         mode = new SimpleObjectProperty<>(Mode.DRAW);
         cx = new SimpleIntegerProperty();
         cy = new SimpleIntegerProperty();
@@ -44,71 +60,51 @@ public class Brush extends Module {
         EventType<? extends MouseEvent> type = event.getEventType();
         cx.set((int) event.getX());
         cy.set((int) event.getY());
-        if (type == MouseEvent.MOUSE_CLICKED || type == MouseEvent.MOUSE_DRAGGED) {
-            try {
-                if (!editor) return;
-                int size = getInputs().getValue("Size", NumberInput.class).intValue();
-                circle((int) event.getX(), (int) event.getY(), size, true);
-            } catch (SilentFailException ignored) {
+        if (editor) {
+            boolean primary = event.getButton() == MouseButton.PRIMARY;
+            if (type == MouseEvent.MOUSE_PRESSED && primary && tiles.get() != null) {
+                tiles.get().startRecording();
+                stroke.begin((int) event.getX(), (int) event.getY());
+            }
+            else if (type == MouseEvent.MOUSE_DRAGGED && event.isPrimaryButtonDown()) {
+                stroke.lineTo((int) event.getX(), (int) event.getY());
+            }
+            else if (type == MouseEvent.MOUSE_RELEASED && primary) {
+                // The rest of the stroke is painted on the next draw, so the undo step is made there.
+                strokeEnded = true;
             }
         }
-        getInputs().getInput("hidden", HiddenInput.class).ifPresent(HiddenInput::callUpdate);
+        // The render is scheduled for the next frame, so a burst of drag events is painted together.
+        hidden.callUpdate();
     }
     
     @Override
     public void onSelectionChange(EditorTab tab, boolean selected) {
         circle = selected;
+        markDirty();
     }
     
-    private void circle(int cx, int cy, int radius, boolean fill) throws SilentFailException {
-        if (image.get() == null) return;
-        int x = radius - 1;
-        int y = 0;
-        int dx = 1;
-        int dy = 1;
-        int err = dx - (radius << 1);
-        SafePixelWriter writer = new SafePixelWriter(image.get());
-        Color c = null;
-        if (mode.get() == Mode.DRAW) {
-            c = getInputs().getValue("Color", ColorInput.class);
-        }
-        else if (mode.get() == Mode.ERASE) {
-            c = Color.TRANSPARENT;
-        }
-        while (x >= y) {
-            if (fill) {
-                for (int i = cx - x; i <= cx + x; i++) {
-                    writer.setColor(i, cy + y, c);
-                    writer.setColor(i, cy - y, c);
-                }
-                for (int i = cx - y; i <= cx + y; i++) {
-                    writer.setColor(i, cy + x, c);
-                    writer.setColor(i, cy - x, c);
-                }
-            }
-            else {
-                writer.setColor(cx + x, cy + y, c);
-                writer.setColor(cx + y, cy + x, c);
-                writer.setColor(cx - y, cy + x, c);
-                writer.setColor(cx - x, cy + y, c);
-                writer.setColor(cx - x, cy - y, c);
-                writer.setColor(cx - y, cy - x, c);
-                writer.setColor(cx + y, cy - x, c);
-                writer.setColor(cx + x, cy - y, c);
-            }
-            if (err <= 0) {
-                y++;
-                err += dy;
-                dy += 2;
-            }
-            if (err > 0) {
-                x--;
-                dx += 2;
-                err += dx - (radius << 1);
+    private void paintStroke() throws SilentFailException {
+        if (tiles.get() == null) return;
+        if (stroke.isPending()) {
+            int argb = 0;
+            if (mode.get() == Mode.DRAW) {
+                argb = Raster.argb(color.get());
             }
+            stroke.apply(tiles.get(), size.get().intValue(), argb);
+        }
+        if (strokeEnded) {
+            strokeEnded = false;
+            submitUndo(tiles.get().stopRecording());
         }
     }
     
+    private void submitUndo(Map<Integer, int[]> before) {
+        if (before.isEmpty()) return;
+        TileUndo step = new TileUndo(tiles.get(), before, this::markDirty);
+        hidden.getUndoTrigger().ifPresent(trigger -> trigger.submit(step));
+    }
+    
     @Override
     public void linkResizeHandle(ResizeHandle handle) {
         handle.hide();
@@ -116,9 +112,9 @@ public class Brush extends Module {
     
     @Override
     public ObservableValue<Bounds> getBounds() {
-        WritableImage img = image.get();
-        if (img == null) return new SimpleObjectProperty<>(new BoundingBox(0, 0, 0, 0));
-        return new SimpleObjectProperty<>(new BoundingBox(0, 0, img.getWidth(), img.getHeight()));
+        TileMap map = tiles.get();
+        if (map == null) return new SimpleObjectProperty<>(new BoundingBox(0, 0, 0, 0));
+        return new SimpleObjectProperty<>(new BoundingBox(0, 0, map.getWidth(), map.getHeight()));
     }
     
     @Override
@@ -130,16 +126,17 @@ public class Brush extends Module {
     public void draw(CanvasLayer canvasLayer, boolean editor) throws SilentFailException {
         Canvas canvas = canvasLayer.getCanvas();
         GraphicsContext context = canvasLayer.getGraphics();
-        if (image.get() == null) {
-            image.set(new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight()));
+        if (tiles.get() == null) {
+            tiles.set(new TileMap((int) canvas.getWidth(), (int) canvas.getHeight()));
         }
-        context.drawImage(image.get(), 0, 0);
+        paintStroke();
+        tiles.get().draw(context, 0, 0);
         if (circle) {
             if (!editor) return;
-            int size = getInputs().getValue("Size", NumberInput.class).intValue();
-            int d = size * 2;
+            int radius = size.get().intValue();
+            int d = radius * 2;
             context.setFill(Color.GRAY);
-            context.strokeRoundRect(cx.get() - size, cy.get() - size, d, d, d, d);
+            context.strokeRoundRect(cx.get() - radius, cy.get() - radius, d, d, d, d);
         }
     }
     
@@ -152,11 +149,15 @@ public class Brush extends Module {
         size.setRange(Range.lowerBound(1));
         size.setValue(10);
         map.addInput("Size", size);
-        map.addInput("Color", new ColorInput());
-        map.addInput("hidden", new HiddenInput());
-        DataInput<WritableImage> imageData = new DataInput<>(Util.imageConverter());
-        imageData.valueProperty().bindBidirectional(image);
-        map.addInput("data", imageData);
+        this.size = new InputHandle<>(size);
+        ColorInput color = new ColorInput();
+        map.addInput("Color", color);
+        this.color = new InputHandle<>(color);
+        hidden = new HiddenInput();
+        map.addInput("hidden", hidden);
+        DataInput<TileMap> tileData = new DataInput<>(TileMap.converter());
+        tileData.valueProperty().bindBidirectional(tiles);
+        map.addInput("data", tileData);
     }
     
     private enum Mode {
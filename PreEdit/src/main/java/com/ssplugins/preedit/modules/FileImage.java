@@ -2,10 +2,12 @@ package com.ssplugins.preedit.modules;
 
 import com.ssplugins.preedit.input.FileInput;
 import com.ssplugins.preedit.input.InputMap;
+import com.ssplugins.preedit.util.data.ImageSource;
 import javafx.application.Platform;
 import javafx.scene.image.Image;
 
 import java.io.File;
+import java.io.IOException;
 
 public class FileImage extends ImageModule {
     
@@ -25,6 +27,7 @@ public class FileImage extends ImageModule {
         super.defineInputs(map);
         FileInput input = new FileInput();
         input.pathProperty().ifPresent(property -> property.addListener((observable, oldValue, newValue) -> {
+            long load = startLoad();
             try {
                 File f = input.getValue().orElse(null);
                 boolean init = input.isInit();
@@ -33,9 +36,16 @@ public class FileImage extends ImageModule {
                     return;
                 }
                 FileImage.this.runDelegate(() -> {
-                    Image img = new Image("file:" + f.getAbsolutePath());
+                    ImageSource source = ImageSource.of(f);
+                    Image img;
+                    try {
+                        img = loadImage(source);
+                    } catch (IOException e) {
+                        Platform.runLater(() -> setImage(load, null, null, init));
+                        return;
+                    }
                     Platform.runLater(() -> {
-                        setImage(img, init);
+                        setImage(load, source, img, init);
                     });
                 });
             } catch (Exception e) {
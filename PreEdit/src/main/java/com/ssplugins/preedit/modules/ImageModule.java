@@ -1,42 +1,137 @@
 package com.ssplugins.preedit.modules;
 
 import com.ssplugins.preedit.edit.NodeModule;
+import com.ssplugins.preedit.exceptions.SilentFailException;
 import com.ssplugins.preedit.input.HiddenInput;
 import com.ssplugins.preedit.input.InputMap;
 import com.ssplugins.preedit.input.LocationInput;
 import com.ssplugins.preedit.nodes.ResizeHandle;
+import com.ssplugins.preedit.util.Util;
+import com.ssplugins.preedit.util.data.ImageSource;
 import javafx.beans.value.ObservableValue;
 import javafx.geometry.Bounds;
+import javafx.geometry.Dimension2D;
 import javafx.scene.Node;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 
+import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ImageModule extends NodeModule {
     
+    // Shared by all image modules so loading many images doesn't start a thread for each.
+    private static ScheduledThreadPoolExecutor loader;
+    
     private Image image;
     private ImageView view;
+    // Set when the image was loaded from a source that can be decoded again at another size.
+    private ImageSource source;
+    // Preview size the shown image was loaded at, 0 for full resolution, or -1 if it needs to be loaded again.
+    private int shownSize;
     
     private Delegate delegate = Delegate.ALL;
+    // Incremented for every load, so the result of a load that was replaced can be ignored.
+    private AtomicLong generation;
+    private Future<?> pending;
     
     public void setImage(Image image, boolean init) {
+        showImage(null, image, init);
+    }
+    
+    // Only sets the image if no load was started after this one.
+    protected final void setImage(long load, ImageSource source, Image image, boolean init) {
+        if (load == generation.get()) showImage(source, image, init);
+    }
+    
+    private void showImage(ImageSource source, Image image, boolean init) {
+        this.source = source;
         this.image = image;
+        this.shownSize = getPreviewSize();
         view.setImage(image);
+        markDirty();
         if (image != null && !init) {
-            getInputs().getInput("Location", LocationInput.class).ifPresent(input -> {
-                input.widthProperty().set((int) image.getWidth());
-                input.heightProperty().set((int) image.getHeight());
+            getImageSize().ifPresent(size -> getInputs().getInput("Location", LocationInput.class).ifPresent(input -> {
+                input.widthProperty().set((int) size.getWidth());
+                input.heightProperty().set((int) size.getHeight());
+            }));
+        }
+    }
+    
+    // Loads the image at the size used while editing. Called from the loading thread.
+    protected final Image loadImage(ImageSource source) throws IOException {
+        return source.load(getPreviewSize());
+    }
+    
+    // Exports use the full resolution image, previews go back to the smaller one.
+    // An export fails if the full resolution image can't be loaded, rather than using the preview.
+    @Override
+    public void prepareRender(boolean preview) throws SilentFailException {
+        if (source == null || image == null) return;
+        int size = preview ? getPreviewSize() : 0;
+        if (size == shownSize) return;
+        try {
+            image = source.load(size);
+            view.setImage(image);
+            shownSize = size;
+        } catch (IOException e) {
+            Util.logError(e);
+            if (!preview) throw new SilentFailException("Unable to load the full resolution image: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void setPreviewSize(int previewSize) {
+        if (previewSize == getPreviewSize()) return;
+        super.setPreviewSize(previewSize);
+        if (source != null) {
+            shownSize = -1;
+            markDirty();
+        }
+    }
+    
+    // Cancels the previous load if it hasn't started yet.
+    protected final long startLoad() {
+        if (pending != null) pending.cancel(false);
+        return generation.incrementAndGet();
+    }
+    
+    private static synchronized ScheduledThreadPoolExecutor getLoader() {
+        if (loader == null) {
+            AtomicInteger count = new AtomicInteger();
+            loader = new ScheduledThreadPoolExecutor(4, runnable -> {
+                Thread thread = new Thread(runnable, "Image Loader " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             });
+            loader.setRemoveOnCancelPolicy(true);
         }
+        return loader;
     }
     
     protected void runDelegate(Runnable runnable) {
+        runDelegate(runnable, 0);
+    }
+    
+    // The delay (in milliseconds) only applies when the load runs in the background.
+    protected void runDelegate(Runnable runnable, long delay) {
         if (delegate == Delegate.NONE || delegate == Delegate.NOT_NEXT) {
             runnable.run();
         }
         else {
-            new Thread(runnable).start();
+            if (pending != null) pending.cancel(false);
+            pending = getLoader().schedule(() -> {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    Util.logError(e);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
         }
         if (delegate == Delegate.NEXT) {
             delegate = Delegate.NONE;
@@ -46,10 +141,23 @@ public class ImageModule extends NodeModule {
         }
     }
     
+    // The image being shown, which may be a scaled down preview. Use getImageSize for the real size.
     public Optional<Image> getImage() {
         return Optional.ofNullable(image);
     }
     
+    public Optional<Dimension2D> getImageSize() {
+        if (image == null) return Optional.empty();
+        if (source != null) {
+            try {
+                int width = source.getWidth();
+                int height = source.getHeight();
+                if (width >= 0 && height >= 0) return Optional.of(new Dimension2D(width, height));
+            } catch (IOException ignored) {}
+        }
+        return Optional.of(new Dimension2D(image.getWidth(), image.getHeight()));
+    }
+    
     public Delegate getDelegate() {
         return delegate;
     }
@@ -64,6 +172,7 @@ public class ImageModule extends NodeModule {
     @Override
     protected void preload() {
         view = new ImageView();
+        generation = new AtomicLong();
     }
     
     @Override
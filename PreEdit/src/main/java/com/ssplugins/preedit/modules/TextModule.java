@@ -4,6 +4,7 @@ import com.ssplugins.preedit.edit.NodeModule;
 import com.ssplugins.preedit.input.*;
 import com.ssplugins.preedit.nodes.ResizeHandle;
 import com.ssplugins.preedit.util.Util;
+import com.ssplugins.preedit.util.data.FontRegistry;
 import com.ssplugins.preedit.util.data.JsonConverter;
 import com.ssplugins.preedit.util.data.Range;
 import com.ssplugins.preedit.util.wrapper.FilteredObjectProperty;
@@ -17,8 +18,6 @@ import javafx.scene.Node;
 import javafx.scene.paint.Color;
 import javafx.scene.text.*;
 
-import java.io.File;
-import java.net.MalformedURLException;
 import java.util.IllegalFormatException;
 import java.util.Optional;
 
@@ -28,6 +27,8 @@ public class TextModule extends NodeModule {
     private Text unwrapped;
     private FilteredObjectProperty<String> outText;
     private ObjectProperty<Font> font;
+    // Family that was asked for. The font may fall back to another one until its files are loaded.
+    private String family;
     private FontWeight weight;
     private FontPosture posture;
     
@@ -37,26 +38,13 @@ public class TextModule extends NodeModule {
     private ChoiceInput<TextAlignment> textAlignment;
     
     private void update(String name, FontWeight weight, FontPosture posture, double size) {
+        family = name;
+        FontRegistry.getDefault().load(name, () -> {
+            if (name.equals(family)) font.set(Font.font(name, this.weight, this.posture, font.get().getSize()));
+        });
         font.set(Font.font(name, weight, posture, size));
     }
     
-    private static boolean LOADED = false;
-    
-    public static void loadFonts() {
-        if (LOADED) return;
-        LOADED = true;
-        File fonts = new File("C:" + File.separator + "Windows" + File.separator + "Fonts");
-        File[] files = fonts.listFiles();
-        if (files == null) return;
-        for (File f : files) {
-            if (!f.getName().toLowerCase().endsWith(".ttf")) continue;
-            try {
-                Font.loadFont(f.toURI().toURL().toString(), 12);
-            } catch (MalformedURLException ignored) {
-            }
-        }
-    }
-    
     public void setText(String text) {
         getInputs().getInput("Content", TextAreaInput.class).ifPresent(textAreaInput -> {
             textAreaInput.setValue(text);
@@ -81,8 +69,8 @@ public class TextModule extends NodeModule {
         unwrapped.fontProperty().bind(text.fontProperty());
         unwrapped.textAlignmentProperty().bind(text.textAlignmentProperty());
         font = new SimpleObjectProperty<>(Font.getDefault());
+        family = Font.getDefault().getFamily();
         yOffset = new SimpleDoubleProperty();
-        loadFonts();
     }
     
     @Override
@@ -120,7 +108,7 @@ public class TextModule extends NodeModule {
             outText.update();
         });
         map.addInput("Placeholders", placeholders);
-        fontFamily = new ChoiceInput<>(Font.getFamilies(), font.get().getName(), JsonConverter.forString());
+        fontFamily = new ChoiceInput<>(FontRegistry.getDefault().getFamilies(), font.get().getName(), JsonConverter.forString());
         fontFamily.valueProperty().addListener((observable, oldValue, newValue) -> {
             update(newValue, weight, posture, font.get().getSize());
         });
@@ -129,14 +117,14 @@ public class TextModule extends NodeModule {
         fontWeight.setCellFactory(Util.enumCellFactory());
         fontWeight.valueProperty().addListener((observable, oldValue, newValue) -> {
             weight = newValue;
-            update(font.get().getFamily(), newValue, posture, font.get().getSize());
+            update(family, newValue, posture, font.get().getSize());
         });
         map.addInput("Font Weight", fontWeight);
         ChoiceInput<FontPosture> fontPosture = new ChoiceInput<>(FontPosture.values(), FontPosture.REGULAR, Util.enumConverter(FontPosture.class));
         fontPosture.setCellFactory(Util.enumCellFactory());
         fontPosture.valueProperty().addListener((observable, oldValue, newValue) -> {
             posture = newValue;
-            update(font.get().getFamily(), weight, newValue, font.get().getSize());
+            update(family, weight, newValue, font.get().getSize());
         });
         map.addInput("Font Posture", fontPosture);
         NumberInput wrap = new NumberInput(true);
@@ -146,7 +134,7 @@ public class TextModule extends NodeModule {
         NumberInput fontSize = new NumberInput(true);
         fontSize.setValue(Font.getDefault().getSize());
         fontSize.numberProperty().addListener((observable, oldValue, newValue) -> {
-            update(font.get().getFamily(), weight, posture, newValue.doubleValue());
+            update(family, weight, posture, newValue.doubleValue());
         });
         fontSize.setRange(Range.lowerBound(1));
         map.addInput("Size", fontSize);
@@ -2,6 +2,7 @@ package com.ssplugins.preedit.modules;
 
 import com.ssplugins.preedit.edit.MultiNodeModule;
 import com.ssplugins.preedit.exceptions.SilentFailException;
+import com.ssplugins.preedit.input.InputHandle;
 import com.ssplugins.preedit.input.InputMap;
 import com.ssplugins.preedit.input.LocationInput;
 import com.ssplugins.preedit.input.NumberInput;
@@ -21,6 +22,7 @@ public class TopText extends MultiNodeModule {
     private TextModule text;
     
     private IntegerProperty totalHeight;
+    private InputHandle<Number> padding;
     
     @Override
     protected void preload() {
@@ -41,7 +43,7 @@ public class TopText extends MultiNodeModule {
     @Override
     public void requestExpansion(ExpandableBounds viewport) throws SilentFailException {
         Text text = (Text) this.text.getNode();
-        int padding = getInputs().getValue("Padding", NumberInput.class).intValue();
+        int padding = this.padding.get().intValue();
         int height = (int) text.getLayoutBounds().getHeight();
         int width = (int) viewport.getWidth() - padding * 2;
         totalHeight.set(height + padding * 2);
@@ -81,6 +83,7 @@ public class TopText extends MultiNodeModule {
         padding.setRange(Range.lowerBound(0));
         padding.setValue(5);
         map.addInput("Padding", padding);
+        this.padding = new InputHandle<>(padding);
     }
     
 }
@@ -1,19 +1,20 @@
 package com.ssplugins.preedit.modules;
 
-import com.ssplugins.preedit.PreEdit;
 import com.ssplugins.preedit.input.InputMap;
 import com.ssplugins.preedit.input.URLInput;
 import com.ssplugins.preedit.util.Util;
+import com.ssplugins.preedit.util.data.HttpCache;
+import com.ssplugins.preedit.util.data.ImageSource;
 import javafx.application.Platform;
 import javafx.scene.image.Image;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
 
 public class URLImage extends ImageModule {
     
+    // Wait for typing to pause before downloading.
+    private static final long TYPING_DELAY = 400;
+    
     @Override
     public String getName() {
         return "URLImage";
@@ -30,6 +31,7 @@ public class URLImage extends ImageModule {
         super.defineInputs(map);
         URLInput input = new URLInput();
         input.textProperty().addListener((observable, oldValue, newValue) -> {
+            long load = startLoad();
             String link = input.getValue().orElse(null);
             boolean init = input.isInit();
             if (link == null) {
@@ -42,21 +44,19 @@ public class URLImage extends ImageModule {
             }
             URLImage.this.runDelegate(() -> {
                 try {
-                    URLConnection conn = new URL(link).openConnection();
-                    conn.setRequestProperty("User-Agent", PreEdit.NAME + " (" + PreEdit.REPO + ")");
-                    try (InputStream stream = conn.getInputStream()) {
-                        Image img = new Image(stream);
-                        img.exceptionProperty().addListener((ob, ov, e) -> {
-                            input.note("Unable to load image: " + e.getMessage());
-                        });
-                        Platform.runLater(() -> {
-                            setImage(img, init);
-                        });
+                    ImageSource source = ImageSource.of(link, HttpCache.getDefault().get(link));
+                    Image img = loadImage(source);
+                    // Images are decoded synchronously and may be shared through the cache, so check once instead of listening.
+                    if (img.isError()) {
+                        input.note("Unable to load image: " + (img.getException() == null ? "unknown error" : img.getException().getMessage()));
                     }
+                    Platform.runLater(() -> {
+                        setImage(load, source, img, init);
+                    });
                 } catch (IllegalArgumentException | IOException e) {
                     input.note("Unable to get image from URL: " + e.getMessage());
                 }
-            });
+            }, init ? 0 : TYPING_DELAY);
         });
         map.addInput("URL", input);
     }
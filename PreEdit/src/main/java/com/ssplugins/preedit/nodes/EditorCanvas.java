@@ -4,6 +4,7 @@ import com.ssplugins.preedit.edit.CanvasLayer;
 import com.ssplugins.preedit.edit.Effect;
 import com.ssplugins.preedit.edit.Module;
 import com.ssplugins.preedit.edit.NodeModule;
+import com.ssplugins.preedit.edit.RenderPlan;
 import com.ssplugins.preedit.exceptions.SilentFailException;
 import com.ssplugins.preedit.util.calc.ExpandableBounds;
 import com.ssplugins.preedit.util.data.Range;
@@ -13,13 +14,15 @@ import javafx.beans.property.SimpleDoubleProperty;
 import javafx.scene.Node;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import javafx.scene.paint.ImagePattern;
 import javafx.scene.transform.Scale;
 
 import java.util.List;
-import java.util.ListIterator;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 
@@ -30,15 +33,26 @@ public class EditorCanvas extends StackPane {
     private ResizeHandle handle;
     
     private Canvas transparentLayer;
+    private double filledWidth = -1, filledHeight = -1;
+    private static ImagePattern checkerboard;
     private static Canvas debug;
+    private Canvas debugLayer;
     
     private ExpandableBounds viewport;
+    private double[] lastViewport;
+    private Boolean lastEditor;
+    private Boolean lastDisplay;
     
     private DoubleProperty scaleFactor;
     private Scale scale;
     private Range scaleRange;
     
     public EditorCanvas(double width, double height) {
+        this(width, height, false);
+    }
+    
+    // Headless canvases get their own debug layer so they don't replace the editor's.
+    public EditorCanvas(double width, double height, boolean headless) {
         viewport = new ExpandableBounds(0, 0, width, height);
         this.prefWidthProperty().bind(this.minWidthProperty());
         this.prefHeightProperty().bind(this.minHeightProperty());
@@ -47,8 +61,9 @@ public class EditorCanvas extends StackPane {
         transparentLayer = new Canvas(width, height);
         transparentLayer.widthProperty().bind(this.minWidthProperty());
         transparentLayer.heightProperty().bind(this.minHeightProperty());
-        debug = new Canvas(width, height);
-        debug.setMouseTransparent(true);
+        debugLayer = new Canvas(width, height);
+        debugLayer.setMouseTransparent(true);
+        if (!headless) debug = debugLayer;
         setCanvasSize(width, height);
         bgPane = new Pane();
         this.getChildren().add(bgPane);
@@ -58,7 +73,7 @@ public class EditorCanvas extends StackPane {
         handle.translateXProperty().bind(viewport.xProperty().negate());
         handle.translateYProperty().bind(viewport.yProperty().negate());
         posPane.getChildren().add(handle);
-        posPane.getChildren().add(debug);
+        posPane.getChildren().add(debugLayer);
         bgPane.getChildren().add(transparentLayer);
     
         scaleFactor = new SimpleDoubleProperty(1);
@@ -135,8 +150,8 @@ public class EditorCanvas extends StackPane {
         viewport.reset();
 //        transparentLayer.setWidth(width);
 //        transparentLayer.setHeight(height);
-        debug.setWidth(width);
-        debug.setHeight(height);
+        debugLayer.setWidth(width);
+        debugLayer.setHeight(height);
     }
     
     public void addLayer() {
@@ -159,63 +174,136 @@ public class EditorCanvas extends StackPane {
     }
     
     public void clearAll() {
-        this.getChildren().stream().filter(node -> node instanceof PaneCanvas).forEach(node -> {
-            ((PaneCanvas) node).clearNode();
-            clear(((PaneCanvas) node).getCanvas());
-        });
-        clear(getTransparentLayer());
+        this.getChildren().stream().filter(node -> node instanceof PaneCanvas).forEach(node -> clearLayer((PaneCanvas) node));
+        clearTransparent();
     }
     
-    public void fillTransparent() {
-        GraphicsContext gc = transparentLayer.getGraphicsContext2D();
-        gc.clearRect(0, 0, transparentLayer.getWidth(), transparentLayer.getHeight());
-        for (int x = 0; x < transparentLayer.getWidth(); x += 5) {
-            for (int y = 0; y < transparentLayer.getHeight(); y += 5) {
-                Color c = ((x + y) % 2 == 0 ? Color.WHITE : Color.LIGHTGRAY);
-                gc.setFill(c);
-                gc.fillRect(x, y, 5, 5);
+    private void clearLayer(PaneCanvas paneCanvas) {
+        paneCanvas.clearNode();
+        paneCanvas.setModule(null);
+        if (paneCanvas.canvasLoaded()) {
+            clear(paneCanvas.getCanvas());
+            paneCanvas.getCanvas().setEffect(null);
+        }
+    }
+    
+    // One tile of the transparency background, shared by every canvas.
+    private static ImagePattern checkerboard() {
+        if (checkerboard == null) {
+            WritableImage tile = new WritableImage(10, 10);
+            PixelWriter writer = tile.getPixelWriter();
+            for (int x = 0; x < 10; x++) {
+                for (int y = 0; y < 10; y++) {
+                    writer.setColor(x, y, (x / 5 + y / 5) % 2 == 0 ? Color.WHITE : Color.LIGHTGRAY);
+                }
             }
+            checkerboard = new ImagePattern(tile, 0, 0, 10, 10, false);
         }
+        return checkerboard;
+    }
+    
+    // The background is only filled again when the size of the canvas changes.
+    public void fillTransparent() {
+        double width = transparentLayer.getWidth();
+        double height = transparentLayer.getHeight();
+        if (width == filledWidth && height == filledHeight) return;
+        GraphicsContext gc = transparentLayer.getGraphicsContext2D();
+        gc.clearRect(0, 0, width, height);
+        gc.setFill(checkerboard());
+        gc.fillRect(0, 0, width, height);
+        filledWidth = width;
+        filledHeight = height;
+    }
+    
+    private void clearTransparent() {
+        clear(getTransparentLayer());
+        filledWidth = -1;
+        filledHeight = -1;
     }
     
     public void renderImage(boolean display, List<Module> modules, boolean editor) throws SilentFailException {
-        clearAll();
+        renderImage(display, RenderPlan.of(modules), editor);
+    }
+    
+    public void renderImage(boolean display, RenderPlan plan, boolean editor) throws SilentFailException {
+        // Displayed renders may use preview images, so switching between them and exports redraws everything.
+        boolean full = lastEditor == null || lastEditor != editor || lastDisplay != display;
+        lastEditor = editor;
+        lastDisplay = display;
+        renderLayers(plan, editor, display, full);
+        // Layers that were skipped are positioned for the old viewport.
+        if (!full && !viewportMatches()) renderLayers(plan, editor, display, true);
+        saveViewport();
+        if (display) fillTransparent();
+        else {
+            clearTransparent();
+            handle.hide();
+        }
+    }
+    
+    // Only layers whose module changed since the last render are cleared and drawn again, unless full is true.
+    private void renderLayers(RenderPlan plan, boolean editor, boolean display, boolean full) throws SilentFailException {
         viewport.reset();
-        ListIterator<Module> it = modules.listIterator(modules.size());
+        int i = 0;
         for (Node node : this.getChildren()) {
             if (!(node instanceof PaneCanvas)) continue;
             PaneCanvas paneCanvas = (PaneCanvas) node;
-            paneCanvas.clearNode();
-            if (!it.hasPrevious()) break;
-            Module m = it.previous();
-            if (paneCanvas.canvasLoaded()) {
-                paneCanvas.getCanvas().setEffect(null);
-                paneCanvas.getGraphics().save();
-            }
-            if (m instanceof NodeModule) {
-                Node n = ((NodeModule) m).getNode();
-                n.setEffect(null);
-                paneCanvas.setNode(n);
-                ((NodeModule) m).requestExpansion(viewport);
-                renderEffects(m.getEffects(), paneCanvas, n, editor);
+            if (i >= plan.size()) {
+                if (paneCanvas.getModule() != null) clearLayer(paneCanvas);
+                continue;
             }
-            else {
-                m.draw(paneCanvas, editor);
-                renderEffects(m.getEffects(), paneCanvas, null, editor);
+            RenderPlan.Op op = plan.get(i++);
+            Module m = op.getModule();
+            if (!full && !m.isDirty() && paneCanvas.getModule() == m) {
+                if (op.getNodeModule() != null) op.getNodeModule().requestExpansion(viewport);
+                continue;
             }
-            if (paneCanvas.canvasLoaded()) {
-                paneCanvas.getGraphics().restore();
+            clearLayer(paneCanvas);
+            paneCanvas.setModule(m);
+            m.setClean();
+            try {
+                drawLayer(paneCanvas, op, editor, display);
+            } catch (SilentFailException e) {
+                m.markDirty();
+                throw e;
             }
         }
-        if (display) fillTransparent();
-        else handle.hide();
-        
     }
     
-    private void renderEffects(List<Effect> list, CanvasLayer canvas, Node node, boolean editor) throws SilentFailException {
-        ListIterator<Effect> it = list.listIterator();
-        while (it.hasNext()) {
-            Effect e = it.next();
+    private void drawLayer(PaneCanvas paneCanvas, RenderPlan.Op op, boolean editor, boolean display) throws SilentFailException {
+        if (paneCanvas.canvasLoaded()) {
+            paneCanvas.getGraphics().save();
+        }
+        op.getModule().prepareRender(display);
+        NodeModule nodeModule = op.getNodeModule();
+        if (nodeModule != null) {
+            Node n = nodeModule.getNode();
+            n.setEffect(null);
+            paneCanvas.setNode(n);
+            nodeModule.requestExpansion(viewport);
+            renderEffects(op.getEffects(), paneCanvas, n, editor);
+        }
+        else {
+            op.getModule().draw(paneCanvas, editor);
+            renderEffects(op.getEffects(), paneCanvas, null, editor);
+        }
+        if (paneCanvas.canvasLoaded()) {
+            paneCanvas.getGraphics().restore();
+        }
+    }
+    
+    private boolean viewportMatches() {
+        return lastViewport != null
+                && lastViewport[0] == viewport.getX() && lastViewport[1] == viewport.getY()
+                && lastViewport[2] == viewport.getWidth() && lastViewport[3] == viewport.getHeight();
+    }
+    
+    private void saveViewport() {
+        lastViewport = new double[] {viewport.getX(), viewport.getY(), viewport.getWidth(), viewport.getHeight()};
+    }
+    
+    private void renderEffects(Effect[] effects, CanvasLayer canvas, Node node, boolean editor) throws SilentFailException {
+        for (Effect e : effects) {
             e.reset();
             e.apply(canvas, node, editor);
         }
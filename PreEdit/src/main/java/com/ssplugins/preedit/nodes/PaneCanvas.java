@@ -1,6 +1,7 @@
 package com.ssplugins.preedit.nodes;
 
 import com.ssplugins.preedit.edit.CanvasLayer;
+import com.ssplugins.preedit.edit.Module;
 import com.ssplugins.preedit.util.calc.ExpandableBounds;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -16,6 +17,7 @@ public class PaneCanvas extends Pane implements CanvasLayer {
     
     private Canvas canvas;
     private ObjectProperty<Node> node;
+    private Module module;
     
     private Rectangle clip;
     
@@ -84,4 +86,13 @@ public class PaneCanvas extends Pane implements CanvasLayer {
         setNode(null);
     }
     
+    // The module currently drawn on this layer.
+    public Module getModule() {
+        return module;
+    }
+    
+    public void setModule(Module module) {
+        this.module = module;
+    }
+    
 }
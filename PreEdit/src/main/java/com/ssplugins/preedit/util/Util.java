@@ -4,6 +4,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 import com.ssplugins.preedit.PreEdit;
 import com.ssplugins.preedit.edit.Module;
+import com.ssplugins.preedit.edit.RenderPlan;
 import com.ssplugins.preedit.exceptions.InvalidInputException;
 import com.ssplugins.preedit.exceptions.SilentFailException;
 import com.ssplugins.preedit.nodes.EditorCanvas;
@@ -103,10 +104,14 @@ public final class Util {
     }
     
     public static Optional<WritableImage> renderImage(EditorCanvas canvas, List<Module> modules) {
+        return renderImage(canvas, RenderPlan.of(modules));
+    }
+    
+    public static Optional<WritableImage> renderImage(EditorCanvas canvas, RenderPlan plan) {
+        double scaleFactor = canvas.getScaleFactor();
         try {
-            double scaleFactor = canvas.getScaleFactor();
             canvas.scaleFactorProperty().set(1);
-            canvas.renderImage(false, modules, false);
+            canvas.renderImage(false, plan, false);
             return runFXSafe(() -> {
                 WritableImage img = new WritableImage((int) canvas.getMinWidth(), (int) canvas.getMinHeight());
                 SnapshotParameters sp = new SnapshotParameters();
@@ -116,6 +121,7 @@ public final class Util {
                 return img;
             });
         } catch (SilentFailException e) {
+            canvas.scaleFactorProperty().set(scaleFactor);
             return Optional.empty();
         }
     }
@@ -193,6 +199,16 @@ public final class Util {
         return fix;
     }
     
+    // Returns false if there is no writer for the file extension.
+    public static boolean writeImage(File out, BufferedImage image) throws IOException {
+        int i = out.getName().lastIndexOf('.');
+        String format = out.getName().substring(i + 1);
+        if (format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg")) {
+            image = fixJPG(image);
+        }
+        return ImageIO.write(image, format, out);
+    }
+    
     public static void copyToClipboard(Image img) {
         Clipboard board = Clipboard.getSystemClipboard();
         ClipboardContent content = new ClipboardContent();
@@ -0,0 +1,85 @@
+package com.ssplugins.preedit.util.calc;
+
+import com.ssplugins.preedit.util.data.TileMap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Undo step for a tile map that only stores the tiles that were changed, compressed.
+public class TileUndo implements UndoHistory.Undo {
+    
+    private TileMap map;
+    private Map<Integer, byte[]> tiles = new LinkedHashMap<>();
+    private Map<Integer, Integer> lengths = new LinkedHashMap<>();
+    private Runnable onRestore;
+    private long size;
+    
+    public TileUndo(TileMap map, Map<Integer, int[]> pixels, Runnable onRestore) {
+        this.map = map;
+        this.onRestore = onRestore;
+        pixels.forEach((index, data) -> {
+            byte[] bytes = data == null ? null : compress(data);
+            tiles.put(index, bytes);
+            lengths.put(index, data == null ? 0 : data.length);
+            size += 16 + (bytes == null ? 0 : bytes.length);
+        });
+    }
+    
+    private static byte[] compress(int[] pixels) {
+        ByteBuffer buffer = ByteBuffer.allocate(pixels.length * 4);
+        buffer.asIntBuffer().put(pixels);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(buffer.array());
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] out = new byte[4096];
+        while (!deflater.finished()) {
+            result.write(out, 0, deflater.deflate(out));
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+    
+    private static int[] decompress(byte[] bytes, int length) {
+        byte[] data = new byte[length * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes);
+        try {
+            int read = 0;
+            while (read < data.length && !inflater.finished()) {
+                read += inflater.inflate(data, read, data.length - read);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+        int[] pixels = new int[length];
+        ByteBuffer.wrap(data).asIntBuffer().get(pixels);
+        return pixels;
+    }
+    
+    @Override
+    public void restore() {
+        tiles.forEach((index, bytes) -> map.setTilePixels(index, bytes == null ? null : decompress(bytes, lengths.get(index))));
+        if (onRestore != null) onRestore.run();
+    }
+    
+    @Override
+    public UndoHistory.Undo redoStep() {
+        Map<Integer, int[]> current = new LinkedHashMap<>();
+        tiles.keySet().forEach(index -> current.put(index, map.getTilePixels(index)));
+        return new TileUndo(map, current, onRestore);
+    }
+    
+    @Override
+    public long getSize() {
+        return size;
+    }
+    
+}
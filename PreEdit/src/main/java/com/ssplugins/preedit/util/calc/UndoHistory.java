@@ -14,12 +14,19 @@ import java.util.concurrent.atomic.AtomicReference;
 
 public class UndoHistory {
     
-    private int capacity = 200;
-    private int pointer = -1;
+    private long memoryLimit = 64 * 1024 * 1024;
+    private long memoryUsed;
+    private long evicted;
+    
+    // Steps are kept in a ring starting at head, oldest first.
+    private Undo[] steps = new Undo[200];
+    private int head;
+    private int size;
+    // Number of steps that can be undone. Steps after it can be redone.
+    private int pointer;
     private final AtomicBoolean working;
     
     private List<UndoTrigger> triggers = new ArrayList<>();
-    private List<Undo> list = new ArrayList<>();
     
     private final AtomicBoolean mouseDown;
     private List<KeyCode> keys = new ArrayList<>();
@@ -80,14 +87,50 @@ public class UndoHistory {
     }
     
     public int getCapacity() {
-        return capacity;
+        return steps.length;
     }
     
     public void setCapacity(int capacity) {
-        this.capacity = capacity;
-        while (list.size() > capacity) {
-            list.remove(0);
+        capacity = Math.max(1, capacity);
+        while (size > capacity) evict();
+        Undo[] resized = new Undo[capacity];
+        for (int i = 0; i < size; i++) {
+            resized[i] = get(i);
         }
+        steps = resized;
+        head = 0;
+    }
+    
+    // Estimated memory the history may use before the oldest steps are dropped.
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+    
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        trim();
+    }
+    
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+    
+    // Number of steps stored, including steps that can be redone.
+    public int getDepth() {
+        return size;
+    }
+    
+    public int getUndoCount() {
+        return pointer;
+    }
+    
+    public int getRedoCount() {
+        return size - pointer;
+    }
+    
+    // Number of steps dropped because of the capacity or memory limit.
+    public long getEvictedCount() {
+        return evicted;
     }
     
     public UndoTrigger createTrigger() {
@@ -96,24 +139,16 @@ public class UndoHistory {
         return trigger;
     }
     
+    // Each step is swapped with its inverse when it is applied, so steps that only
+    // store part of the state (like the pixels under a brush stroke) can be redone.
     public void undo() {
         synchronized (this) {
-            if (list.size() == 0) return;
             if (working.get()) return;
+            if (pointer == 0) return;
             working.set(true);
-            boolean push = false;
-            if (pointer == -1) {
-                push = true;
-                pointer = list.size();
-            }
             pointer--;
-            if (pointer < 0) {
-                pointer = 0;
-                working.set(false);
-                return;
-            }
-            Undo step = list.get(pointer);
-            if (push) list.add(step.redoStep());
+            Undo step = get(pointer);
+            replace(pointer, step.redoStep());
             step.restore();
             working.set(false);
             update();
@@ -123,47 +158,93 @@ public class UndoHistory {
     public void redo() {
         synchronized (this) {
             if (working.get()) return;
+            if (pointer >= size) return;
             working.set(true);
-            if (pointer == -1) return;
-            pointer++;
-            if (pointer >= list.size()) {
-                pointer = list.size() - 1;
-                working.set(false);
-                return;
-            }
-            Undo step = list.get(pointer);
+            Undo step = get(pointer);
+            replace(pointer, step.redoStep());
             step.restore();
+            pointer++;
             working.set(false);
             update();
         }
     }
     
+    private int slot(int index) {
+        return (head + index) % steps.length;
+    }
+    
+    private Undo get(int index) {
+        return steps[slot(index)];
+    }
+    
+    private void replace(int index, Undo step) {
+        int slot = slot(index);
+        memoryUsed += step.getSize() - steps[slot].getSize();
+        steps[slot] = step;
+    }
+    
     private void push(Undo step) {
-        if (pointer > -1) {
-            pointer++;
-            while (list.size() > pointer) list.remove(pointer);
-            pointer = -1;
+        // Drop steps that could have been redone.
+        while (size > pointer) {
+            int slot = slot(--size);
+            memoryUsed -= steps[slot].getSize();
+            steps[slot] = null;
         }
-        list.add(step);
-        while (list.size() > capacity) list.remove(0);
+        if (size == steps.length) evict();
+        steps[slot(size++)] = step;
+        memoryUsed += step.getSize();
+        pointer = size;
+        trim();
+    }
+    
+    // Extends the newest step instead of adding a new one if it changed the same property within the window.
+    // The step keeps its original value, so undoing it reverts the whole burst of changes.
+    private boolean merge(Property<?> property, long mergeWindow) {
+        if (mergeWindow <= 0 || pointer == 0 || pointer != size) return false;
+        Undo last = get(pointer - 1);
+        if (!(last instanceof UndoStep)) return false;
+        UndoStep<?> step = (UndoStep<?>) last;
+        long now = System.nanoTime();
+        if (step.property != property || now - step.time > mergeWindow * 1000000) return false;
+        step.time = now;
+        return true;
+    }
+    
+    private void evict() {
+        memoryUsed -= steps[head].getSize();
+        steps[head] = null;
+        head = (head + 1) % steps.length;
+        size--;
+        if (pointer > 0) pointer--;
+        evicted++;
+    }
+    
+    // The newest step is always kept, even if it is over the memory limit by itself.
+    private void trim() {
+        while (size > 1 && memoryUsed > memoryLimit) evict();
     }
     
-    private interface Undo {
+    public interface Undo {
         
         void restore();
         
         Undo redoStep();
         
+        // Estimated number of bytes held by this step.
+        long getSize();
+        
     }
     
     private class UndoStep<T> implements Undo {
         
         private Property<T> property;
         private T oldValue;
+        private long time;
         
         private UndoStep(Property<T> property, T oldValue) {
             this.property = property;
             this.oldValue = oldValue;
+            this.time = System.nanoTime();
         }
         
         @Override
@@ -176,6 +257,11 @@ public class UndoHistory {
             property.setValue(oldValue);
         }
         
+        @Override
+        public long getSize() {
+            return 32;
+        }
+        
     }
     
     private class UndoGroup implements Undo {
@@ -206,6 +292,11 @@ public class UndoHistory {
             steps.forEach(Undo::restore);
         }
         
+        @Override
+        public long getSize() {
+            return steps.stream().mapToLong(Undo::getSize).sum();
+        }
+        
     }
     
     public class UndoTrigger {
@@ -225,22 +316,46 @@ public class UndoHistory {
         }
     
         public <U> void submitBypass(Property<U> property, U oldValue) {
+            submitBypass(property, oldValue, 0);
+        }
+    
+        // Changes to the same property less than mergeWindow milliseconds apart are merged into one step.
+        public <U> void submitBypass(Property<U> property, U oldValue, long mergeWindow) {
             if (history.isWorking()) return;
+            if (history.merge(property, mergeWindow)) return;
             history.push(new UndoStep<>(property, oldValue));
         }
     
         public <U> void submit(Property<U> property, U oldValue) {
+            submit(property, oldValue, 0);
+        }
+    
+        public <U> void submit(Property<U> property, U oldValue, long mergeWindow) {
             if (history.isButtonHeld()) {
                 if (submit.get() != null) return;
                 submit.updateAndGet(undoStep -> new UndoStep<>(property, oldValue));
                 return;
             }
-            submitBypass(property, oldValue);
+            submitBypass(property, oldValue, mergeWindow);
+        }
+    
+        public void submit(Undo step) {
+            if (history.isButtonHeld()) {
+                if (submit.get() != null) return;
+                submit.set(step);
+                return;
+            }
+            if (history.isWorking()) return;
+            history.push(step);
         }
     
         public <U> void auto(Property<U> property) {
+            auto(property, 0);
+        }
+    
+        public <U> void auto(Property<U> property, long mergeWindow) {
             property.addListener((observable, oldValue, newValue) -> {
-                submit(property, oldValue);
+                submit(property, oldValue, mergeWindow);
             });
         }
         
@@ -0,0 +1,208 @@
+package com.ssplugins.preedit.util.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.ssplugins.preedit.PreEdit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+
+// Binary data kept in files named by the SHA-256 hash of their content.
+// Templates store the hash, so identical data is written once and shared between templates.
+// References are objects with an "asset" hash. Templates added from elsewhere may carry the data
+// inline next to the reference as base64 "data", which is taken into the store when they are added.
+// Assets no template references any more are deleted by sweep.
+public class AssetStore {
+    
+    private static AssetStore instance;
+    
+    private Path directory;
+    // Assets used after this are kept by sweep, since an open template may still reference them without being saved.
+    // It is a minute before the store was created, for file systems with coarse timestamps.
+    private long started = System.currentTimeMillis() - 60 * 1000;
+    
+    public AssetStore(Path directory) {
+        this.directory = directory;
+    }
+    
+    public static synchronized AssetStore getDefault() {
+        if (instance == null) instance = new AssetStore(PreEdit.getApplicationDirectory().toPath().resolve("assets"));
+        return instance;
+    }
+    
+    public static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private Path path(String hash) throws IOException {
+        if (hash.length() < 3 || !hash.matches("[0-9a-f]+")) throw new IOException("Invalid asset reference: " + hash);
+        return directory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+    
+    // Returns the hash to reference the data by. Nothing is written if the asset already exists.
+    public synchronized String put(byte[] data) throws IOException {
+        String hash = hash(data);
+        Path path = path(hash);
+        if (Files.exists(path)) {
+            touch(hash);
+            return hash;
+        }
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), hash, ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+    
+    // Marks the asset as used, so sweep keeps it while the app is running.
+    public synchronized void touch(String hash) {
+        try {
+            Files.setLastModifiedTime(path(hash), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {}
+    }
+    
+    // Deletes the assets that are not referenced and were not used since the store was created.
+    // Returns the number of files deleted.
+    public int sweep(Set<String> referenced) throws IOException {
+        if (!Files.isDirectory(directory)) return 0;
+        int deleted = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(directory)) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir)) continue;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        if (referenced.contains(file.getFileName().toString())) continue;
+                        // Checked again while holding the lock, in case the asset is being put right now.
+                        synchronized (this) {
+                            if (Files.getLastModifiedTime(file).toMillis() >= started) continue;
+                            if (Files.deleteIfExists(file)) deleted++;
+                        }
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+    
+    public boolean contains(String hash) {
+        try {
+            return Files.exists(path(hash));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    // Maps the asset into memory instead of copying it onto the heap.
+    public ByteBuffer map(String hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(hash), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
+    public InputStream open(String hash) throws IOException {
+        return stream(map(hash));
+    }
+    
+    public static InputStream stream(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return data.hasRemaining() ? data.get() & 0xFF : -1;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!data.hasRemaining()) return -1;
+                len = Math.min(len, data.remaining());
+                data.get(b, off, len);
+                return len;
+            }
+            
+            @Override
+            public int available() {
+                return data.remaining();
+            }
+        };
+    }
+    
+    private static boolean isReference(JsonObject object) {
+        JsonElement asset = object.get("asset");
+        return asset != null && asset.isJsonPrimitive() && asset.getAsJsonPrimitive().isString() && asset.getAsString().matches("[0-9a-f]{64}");
+    }
+    
+    // Adds the hash of every asset referenced in the JSON to the set.
+    public static void references(JsonElement json, Set<String> hashes) {
+        if (json.isJsonArray()) {
+            for (JsonElement element : json.getAsJsonArray()) {
+                references(element, hashes);
+            }
+        }
+        if (!json.isJsonObject()) return;
+        JsonObject object = json.getAsJsonObject();
+        if (isReference(object)) {
+            hashes.add(object.get("asset").getAsString());
+            return;
+        }
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            references(entry.getValue(), hashes);
+        }
+    }
+    
+    // Moves inlined data into this store and removes it from the JSON.
+    // Data that doesn't match its hash is left inline, readers fall back to it if the asset is missing.
+    public void absorb(JsonElement json) throws IOException {
+        if (json.isJsonArray()) {
+            for (JsonElement element : json.getAsJsonArray()) {
+                absorb(element);
+            }
+        }
+        if (!json.isJsonObject()) return;
+        JsonObject object = json.getAsJsonObject();
+        if (isReference(object) && object.has("data") && object.get("data").isJsonPrimitive()) {
+            String hash = object.get("asset").getAsString();
+            if (!contains(hash)) {
+                byte[] data;
+                try {
+                    data = Base64.getDecoder().decode(object.get("data").getAsString());
+                } catch (IllegalArgumentException e) {
+                    return;
+                }
+                if (!hash(data).equals(hash)) return;
+                put(data);
+            }
+            object.remove("data");
+            return;
+        }
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            absorb(entry.getValue());
+        }
+    }
+    
+}
@@ -0,0 +1,317 @@
+package com.ssplugins.preedit.util.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ssplugins.preedit.PreEdit;
+import com.ssplugins.preedit.util.Util;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.text.Font;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+// Font files in the platform font directories, indexed by family name on a background thread.
+// Only the name table of each file is read while indexing. The fonts of a family are loaded
+// the first time the family is used, or when indexing finishes if it is used before that.
+// The index is saved and reused while none of the directories have been modified.
+public class FontRegistry {
+    
+    private static FontRegistry instance;
+    
+    private Path indexFile;
+    private List<Path> directories;
+    
+    private volatile Map<String, List<String>> families = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private CountDownLatch indexed = new CountDownLatch(1);
+    private boolean started;
+    
+    private Set<String> loaded = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    // Families used before indexing finished, with what to run once their files are loaded.
+    private Map<String, List<Runnable>> waiting = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private ObservableList<String> familyList;
+    
+    public FontRegistry(Path indexFile, List<Path> directories) {
+        this.indexFile = indexFile;
+        this.directories = directories;
+    }
+    
+    public static synchronized FontRegistry getDefault() {
+        if (instance == null) {
+            instance = new FontRegistry(PreEdit.getApplicationDirectory().toPath().resolve("fonts.json"), platformDirectories());
+        }
+        return instance;
+    }
+    
+    // Directories that don't exist on this system are skipped when indexing.
+    public static List<Path> platformDirectories() {
+        List<Path> dirs = new ArrayList<>();
+        String home = System.getProperty("user.home");
+        String windows = System.getenv("WINDIR");
+        dirs.add(Paths.get(windows != null ? windows : "C:" + File.separator + "Windows", "Fonts"));
+        String local = System.getenv("LOCALAPPDATA");
+        if (local != null) dirs.add(Paths.get(local, "Microsoft", "Windows", "Fonts"));
+        dirs.add(Paths.get("/System/Library/Fonts"));
+        dirs.add(Paths.get("/Library/Fonts"));
+        dirs.add(Paths.get(home, "Library", "Fonts"));
+        dirs.add(Paths.get("/usr/share/fonts"));
+        dirs.add(Paths.get("/usr/local/share/fonts"));
+        dirs.add(Paths.get(home, ".fonts"));
+        dirs.add(Paths.get(home, ".local", "share", "fonts"));
+        return dirs;
+    }
+    
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        Thread thread = new Thread(this::index, "Font Index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public boolean isIndexed() {
+        return indexed.getCount() == 0;
+    }
+    
+    // Families known to JavaFX plus the indexed ones. The list is filled in when indexing finishes.
+    // Must be used on the FX thread.
+    public ObservableList<String> getFamilies() {
+        if (familyList == null) {
+            familyList = FXCollections.observableArrayList(Font.getFamilies());
+            mergeFamilies();
+        }
+        return familyList;
+    }
+    
+    private void mergeFamilies() {
+        if (familyList == null) return;
+        Set<String> known = new HashSet<>(familyList);
+        List<String> added = new ArrayList<>();
+        families.keySet().forEach(family -> {
+            if (known.add(family)) added.add(family);
+        });
+        if (added.isEmpty()) return;
+        familyList.addAll(added);
+        FXCollections.sort(familyList);
+    }
+    
+    // Loads the font files of the family if it hasn't been used yet. If indexing hasn't finished,
+    // the files are loaded afterwards and reload runs on the FX thread so the font can be set again.
+    public void load(String family, Runnable reload) {
+        if (family == null) return;
+        synchronized (loaded) {
+            if (loaded.contains(family)) return;
+            if (!isIndexed()) {
+                waiting.computeIfAbsent(family, s -> new ArrayList<>()).add(reload);
+                return;
+            }
+            loaded.add(family);
+        }
+        loadFiles(family);
+    }
+    
+    private void loadFiles(String family) {
+        List<String> files = families.get(family);
+        if (files == null) return;
+        for (String file : files) {
+            Font.loadFont(new File(file).toURI().toString(), 12);
+        }
+    }
+    
+    // Loads the families that were used while indexing, then lets their users set the font again.
+    private void loadWaiting() {
+        Map<String, List<Runnable>> queued;
+        synchronized (loaded) {
+            queued = waiting;
+            waiting = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            loaded.addAll(queued.keySet());
+        }
+        if (queued.isEmpty()) return;
+        queued.keySet().forEach(this::loadFiles);
+        Util.runFXSafe(() -> queued.values().forEach(list -> list.forEach(Runnable::run)));
+    }
+    
+    private void index() {
+        try {
+            Map<String, Long> modified = new TreeMap<>();
+            List<Path> files = new ArrayList<>();
+            Set<Path> visited = new HashSet<>();
+            for (Path dir : directories) {
+                scan(dir, modified, files, visited);
+            }
+            Map<String, List<String>> index = readIndex(modified);
+            if (index == null) {
+                index = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (Path file : files) {
+                    String family = familyName(file);
+                    if (family == null) continue;
+                    index.computeIfAbsent(family, s -> new ArrayList<>()).add(file.toString());
+                }
+                writeIndex(modified, index);
+            }
+            families = index;
+        } catch (Throwable t) {
+            Util.logError(t);
+        } finally {
+            indexed.countDown();
+        }
+        loadWaiting();
+        Util.runFXSafe(this::mergeFamilies);
+    }
+    
+    // Directories reached again through a link are skipped, so link loops end.
+    private static void scan(Path dir, Map<String, Long> modified, List<Path> files, Set<Path> visited) {
+        try {
+            if (!visited.add(dir.toRealPath())) return;
+        } catch (IOException e) {
+            return;
+        }
+        File[] list = dir.toFile().listFiles();
+        if (list == null) return;
+        modified.put(dir.toString(), dir.toFile().lastModified());
+        Arrays.sort(list);
+        for (File file : list) {
+            if (file.isDirectory()) {
+                scan(file.toPath(), modified, files, visited);
+                continue;
+            }
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".ttf") || name.endsWith(".otf") || name.endsWith(".ttc")) files.add(file.toPath());
+        }
+    }
+    
+    // Returns null if there is no saved index or a directory changed since it was saved.
+    private Map<String, List<String>> readIndex(Map<String, Long> modified) {
+        if (!Files.exists(indexFile)) return null;
+        try {
+            JsonElement root = new JsonParser().parse(new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8));
+            if (!root.isJsonObject()) return null;
+            JsonObject json = root.getAsJsonObject();
+            JsonElement dirs = json.get("directories");
+            JsonElement fams = json.get("families");
+            if (dirs == null || !dirs.isJsonObject() || fams == null || !fams.isJsonObject()) return null;
+            if (dirs.getAsJsonObject().size() != modified.size()) return null;
+            for (Map.Entry<String, Long> entry : modified.entrySet()) {
+                JsonElement time = dirs.getAsJsonObject().get(entry.getKey());
+                if (!isPrimitive(time) || !time.getAsJsonPrimitive().isNumber() || time.getAsLong() != entry.getValue()) return null;
+            }
+            Map<String, List<String>> index = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, JsonElement> entry : fams.getAsJsonObject().entrySet()) {
+                if (!entry.getValue().isJsonArray()) return null;
+                List<String> files = new ArrayList<>();
+                for (JsonElement element : entry.getValue().getAsJsonArray()) {
+                    if (!isPrimitive(element) || !element.getAsJsonPrimitive().isString()) return null;
+                    files.add(element.getAsString());
+                }
+                index.put(entry.getKey(), files);
+            }
+            return index;
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+    
+    private static boolean isPrimitive(JsonElement element) {
+        return element != null && element.isJsonPrimitive();
+    }
+    
+    private void writeIndex(Map<String, Long> modified, Map<String, List<String>> index) throws IOException {
+        JsonObject json = new JsonObject();
+        JsonObject dirs = new JsonObject();
+        modified.forEach(dirs::addProperty);
+        json.add("directories", dirs);
+        JsonObject fams = new JsonObject();
+        index.forEach((family, files) -> {
+            JsonArray array = new JsonArray();
+            files.forEach(array::add);
+            fams.add(family, array);
+        });
+        json.add("families", fams);
+        Files.createDirectories(indexFile.getParent());
+        Path temp = Files.createTempFile(indexFile.getParent(), "fonts", ".tmp");
+        try {
+            Files.write(temp, json.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    // Family name (name ID 1) from the name table of a TrueType or OpenType file, or null if it can't be read.
+    // For a collection (.ttc) this is the family of the first font, which is the one JavaFX loads from it.
+    static String familyName(Path path) {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            long font = 0;
+            byte[] magic = new byte[4];
+            file.readFully(magic);
+            if (new String(magic, StandardCharsets.US_ASCII).equals("ttcf")) {
+                file.seek(12);
+                font = file.readInt() & 0xFFFFFFFFL;
+            }
+            file.seek(font + 4);
+            int tables = file.readUnsignedShort();
+            long nameOffset = -1;
+            for (int i = 0; i < tables; i++) {
+                file.seek(font + 12 + i * 16);
+                byte[] tag = new byte[4];
+                file.readFully(tag);
+                if (new String(tag, StandardCharsets.US_ASCII).equals("name")) {
+                    file.skipBytes(4);
+                    nameOffset = file.readInt() & 0xFFFFFFFFL;
+                    break;
+                }
+            }
+            if (nameOffset < 0) return null;
+            file.seek(nameOffset + 2);
+            int count = file.readUnsignedShort();
+            long strings = nameOffset + file.readUnsignedShort();
+            String best = null;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                file.seek(nameOffset + 6 + i * 12);
+                int platform = file.readUnsignedShort();
+                int encoding = file.readUnsignedShort();
+                int language = file.readUnsignedShort();
+                int nameId = file.readUnsignedShort();
+                int length = file.readUnsignedShort();
+                int offset = file.readUnsignedShort();
+                if (nameId != 1) continue;
+                // Prefer English Windows names, then any Windows name, then Mac and Unicode names.
+                int rank;
+                if (platform == 3 && language == 0x409) rank = 0;
+                else if (platform == 3) rank = 1;
+                else if (platform == 1 && encoding == 0) rank = 2;
+                else if (platform == 0) rank = 3;
+                else continue;
+                if (rank >= bestRank) continue;
+                byte[] data = new byte[length];
+                file.seek(strings + offset);
+                file.readFully(data);
+                best = new String(data, rank == 2 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16BE).trim();
+                bestRank = rank;
+            }
+            return best == null || best.isEmpty() ? null : best;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+}
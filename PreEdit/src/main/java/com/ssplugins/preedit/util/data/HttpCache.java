@@ -0,0 +1,383 @@
+package com.ssplugins.preedit.util.data;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ssplugins.preedit.PreEdit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bodies of HTTP responses kept on disk along with their ETag and Last-Modified headers.
+// An entry is used without a request while it is fresh: for its Cache-Control max-age, or if there is
+// none but the response had a Last-Modified date, for the revalidation interval. Otherwise it is
+// revalidated with a conditional request. If the server can't be reached, the stored body is used anyway.
+// A response reads its body together with the metadata, so the bytes always match its version
+// even if another thread replaces or deletes the entry afterwards.
+// When the total size goes over the limit, the least recently used bodies are deleted.
+public class HttpCache {
+    
+    private static HttpCache instance;
+    
+    private Path directory;
+    private long maxSize;
+    private long revalidateAfter = 5 * 60 * 1000;
+    private String userAgent;
+    
+    // Total size of the stored bodies, counted when first needed.
+    private long size = -1;
+    
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong revalidated = new AtomicLong();
+    private AtomicLong downloaded = new AtomicLong();
+    private AtomicLong offline = new AtomicLong();
+    
+    public HttpCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+    
+    public static synchronized HttpCache getDefault() {
+        if (instance == null) {
+            instance = new HttpCache(PreEdit.getApplicationDirectory().toPath().resolve("http-cache"), 512L * 1024 * 1024);
+            instance.setUserAgent(PreEdit.NAME + " (" + PreEdit.REPO + ")");
+        }
+        return instance;
+    }
+    
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+    
+    public long getRevalidateAfter() {
+        return revalidateAfter;
+    }
+    
+    // Milliseconds an entry is used without asking the server, if the server didn't say how long.
+    public void setRevalidateAfter(long revalidateAfter) {
+        this.revalidateAfter = revalidateAfter;
+    }
+    
+    public long getMaxSize() {
+        return maxSize;
+    }
+    
+    public void setMaxSize(long maxSize) throws IOException {
+        this.maxSize = maxSize;
+        cleanup(null);
+    }
+    
+    // Only http and https responses are stored. Other URLs are opened directly.
+    public Response get(String link) throws IOException {
+        return get(link, true);
+    }
+    
+    private Response get(String link, boolean retry) throws IOException {
+        URL url = new URL(link);
+        if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+            return new Response(url);
+        }
+        String key = AssetStore.hash(link.getBytes(StandardCharsets.UTF_8));
+        Path body = directory.resolve(key + ".body");
+        Path metaPath = directory.resolve(key + ".json");
+        JsonObject meta = readMeta(metaPath, body);
+        long now = System.currentTimeMillis();
+        if (meta != null && now - meta.get("checked").getAsLong() < freshFor(meta)) {
+            Response response = use(key, now);
+            if (response != null) {
+                hits.incrementAndGet();
+                return response;
+            }
+            meta = null;
+        }
+        HttpURLConnection conn = null;
+        int code;
+        try {
+            conn = (HttpURLConnection) url.openConnection();
+            if (userAgent != null) conn.setRequestProperty("User-Agent", userAgent);
+            if (meta != null) {
+                if (meta.has("etag")) conn.setRequestProperty("If-None-Match", meta.get("etag").getAsString());
+                if (meta.has("lastModified")) conn.setRequestProperty("If-Modified-Since", meta.get("lastModified").getAsString());
+            }
+            code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && meta != null) {
+                Response response = revalidate(key, meta, maxAge(conn.getHeaderField("Cache-Control")), now);
+                if (response == null) {
+                    // The entry was removed since the request was sent.
+                    if (retry) return get(link, false);
+                    throw new IOException("Server returned 304 for " + link + " but the cached copy is gone.");
+                }
+                revalidated.incrementAndGet();
+                return response;
+            }
+            if (code >= 500 && meta != null) {
+                Response response = use(key, now);
+                if (response != null) {
+                    offline.incrementAndGet();
+                    return response;
+                }
+            }
+            if (code == HttpURLConnection.HTTP_OK) {
+                downloaded.incrementAndGet();
+                String cacheControl = conn.getHeaderField("Cache-Control");
+                if (cacheControl != null && cacheControl.toLowerCase().contains("no-store")) {
+                    remove(key);
+                    return new Response(readAll(conn.getInputStream()));
+                }
+                return store(key, link, conn, now);
+            }
+        } catch (IOException e) {
+            Response response = meta != null ? use(key, now) : null;
+            if (response != null) {
+                offline.incrementAndGet();
+                return response;
+            }
+            throw e;
+        } finally {
+            if (conn != null) conn.disconnect();
+        }
+        // The server answered, so the stored body is not used in place of the error.
+        if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) remove(key);
+        throw new IOException("Server returned " + code + " for " + link);
+    }
+    
+    private Response store(String key, String link, HttpURLConnection conn, long now) throws IOException {
+        Files.createDirectories(directory);
+        Path body = directory.resolve(key + ".body");
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        long length;
+        try (InputStream in = conn.getInputStream()) {
+            length = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        JsonObject meta = new JsonObject();
+        meta.addProperty("url", link);
+        String etag = conn.getHeaderField("ETag");
+        if (etag != null) meta.addProperty("etag", etag);
+        String lastModified = conn.getHeaderField("Last-Modified");
+        if (lastModified != null) meta.addProperty("lastModified", lastModified);
+        meta.addProperty("maxAge", maxAge(conn.getHeaderField("Cache-Control")));
+        meta.addProperty("checked", now);
+        meta.addProperty("size", length);
+        Response response;
+        // The body and metadata are replaced together, so readers never see one without the other.
+        synchronized (this) {
+            // Stored times only increase, so two downloads in the same millisecond still get different versions.
+            JsonObject previous = readMeta(directory.resolve(key + ".json"), body);
+            meta.addProperty("stored", previous != null ? Math.max(now, previous.get("stored").getAsLong() + 1) : now);
+            try {
+                long old = Files.exists(body) ? Files.size(body) : 0;
+                Files.move(temp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (size >= 0) size += length - old;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            writeMeta(directory.resolve(key + ".json"), meta);
+            response = use(key, now);
+        }
+        if (response == null) throw new IOException("Unable to read the stored response for " + link);
+        cleanup(body);
+        return response;
+    }
+    
+    private synchronized Response revalidate(String key, JsonObject meta, long maxAge, long now) throws IOException {
+        Path body = directory.resolve(key + ".body");
+        Path metaPath = directory.resolve(key + ".json");
+        JsonObject current = readMeta(metaPath, body);
+        // Only mark the entry checked if it is still the one the conditional request was made for.
+        if (current == null || current.get("stored").getAsLong() != meta.get("stored").getAsLong()) return null;
+        current.addProperty("checked", now);
+        current.addProperty("maxAge", maxAge);
+        writeMeta(metaPath, current);
+        return use(key, now);
+    }
+    
+    // Reads the stored body and its metadata together, or returns null if the entry is gone.
+    private synchronized Response use(String key, long now) {
+        Path body = directory.resolve(key + ".body");
+        JsonObject meta = readMeta(directory.resolve(key + ".json"), body);
+        if (meta == null) return null;
+        try {
+            byte[] data = Files.readAllBytes(body);
+            Files.setLastModifiedTime(body, FileTime.fromMillis(now));
+            return new Response(data, meta);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    // Without max-age, only responses with a Last-Modified date are used without asking the server.
+    private long freshFor(JsonObject meta) {
+        long maxAge = meta.get("maxAge").getAsLong();
+        if (maxAge >= 0) return maxAge;
+        return meta.has("lastModified") ? revalidateAfter : 0;
+    }
+    
+    // Milliseconds from the max-age directive, 0 for no-cache, or -1 if neither is present.
+    private static long maxAge(String cacheControl) {
+        if (cacheControl == null) return -1;
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-cache")) return 0;
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring(8).trim()) * 1000;
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        return -1;
+    }
+    
+    private JsonObject readMeta(Path metaPath, Path body) {
+        if (!Files.exists(metaPath) || !Files.exists(body)) return null;
+        try {
+            JsonObject meta = new JsonParser().parse(new String(Files.readAllBytes(metaPath), StandardCharsets.UTF_8)).getAsJsonObject();
+            if (!meta.has("checked") || !meta.has("maxAge") || !meta.has("stored") || !meta.has("size")) return null;
+            return meta;
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            return null;
+        }
+    }
+    
+    private void writeMeta(Path metaPath, JsonObject meta) throws IOException {
+        Path temp = Files.createTempFile(directory, metaPath.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, meta.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, metaPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private synchronized void remove(String key) throws IOException {
+        Path body = directory.resolve(key + ".body");
+        if (Files.exists(body) && size >= 0) size -= Files.size(body);
+        Files.deleteIfExists(body);
+        Files.deleteIfExists(directory.resolve(key + ".json"));
+    }
+    
+    // Deletes the least recently used bodies until the cache fits in the size limit. Keep is never deleted.
+    private synchronized void cleanup(Path keep) throws IOException {
+        if (getSize() <= maxSize) return;
+        List<Path> bodies = listBodies();
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path path : bodies) {
+            times.put(path, Files.getLastModifiedTime(path));
+        }
+        bodies.sort(Comparator.comparing(times::get));
+        for (Path body : bodies) {
+            if (size <= maxSize) break;
+            if (body.equals(keep)) continue;
+            String name = body.getFileName().toString();
+            remove(name.substring(0, name.length() - ".body".length()));
+        }
+    }
+    
+    private List<Path> listBodies() throws IOException {
+        List<Path> bodies = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return bodies;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.body")) {
+            stream.forEach(bodies::add);
+        }
+        return bodies;
+    }
+    
+    // Bytes used by stored bodies.
+    public synchronized long getSize() throws IOException {
+        if (size < 0) {
+            long total = 0;
+            for (Path path : listBodies()) {
+                total += Files.size(path);
+            }
+            size = total;
+        }
+        return size;
+    }
+    
+    // Responses used without a request because they were still fresh.
+    public long getHits() {
+        return hits.get();
+    }
+    
+    // Responses the server said were not modified.
+    public long getRevalidated() {
+        return revalidated.get();
+    }
+    
+    public long getDownloaded() {
+        return downloaded.get();
+    }
+    
+    // Stored responses used because the server couldn't be reached or returned an error.
+    public long getOfflineHits() {
+        return offline.get();
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+    
+    public static class Response {
+        
+        private String version = "";
+        private boolean cached;
+        private byte[] data;
+        private URL url;
+        
+        private Response(byte[] data, JsonObject meta) {
+            this.data = data;
+            this.version = meta.get("stored").getAsLong() + "/" + meta.get("size").getAsLong();
+            this.cached = true;
+        }
+        
+        private Response(byte[] data) {
+            this.data = data;
+        }
+        
+        private Response(URL url) {
+            this.url = url;
+        }
+        
+        public InputStream openStream() throws IOException {
+            if (data != null) return new ByteArrayInputStream(data);
+            return url.openStream();
+        }
+        
+        // Changes whenever a new body is stored. Empty if the response isn't stored.
+        public String getVersion() {
+            return version;
+        }
+        
+        public boolean isCached() {
+            return cached;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,131 @@
+package com.ssplugins.preedit.util.data;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// Decoded images shared by every module, kept until the memory limit is reached
+// and then dropped starting with the least recently used.
+// Each entry has a validator (a file's modification time, an HTTP ETag, ...) and is
+// only returned if the caller's validator still matches.
+public class ImageCache {
+    
+    private static ImageCache instance;
+    
+    private Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryLimit;
+    private long memoryUsed;
+    
+    private long hits, misses, evicted;
+    
+    public ImageCache(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+    
+    public static synchronized ImageCache getDefault() {
+        if (instance == null) instance = new ImageCache(256 * 1024 * 1024);
+        return instance;
+    }
+    
+    // Decoded size of the image, 4 bytes per pixel.
+    public static long sizeOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+    
+    public synchronized Optional<Image> get(String key, String validator) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.validator.equals(validator)) {
+            hits++;
+            return Optional.of(entry.image);
+        }
+        if (entry != null) remove(key);
+        misses++;
+        return Optional.empty();
+    }
+    
+    // Validator of the cached image, without counting as a hit or miss.
+    public synchronized Optional<String> getValidator(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? Optional.empty() : Optional.of(entry.validator);
+    }
+    
+    // Images that are still loading, failed to load or are larger than the limit are not kept.
+    public synchronized void put(String key, String validator, Image image) {
+        if (image == null || image.isError() || image.getProgress() < 1) return;
+        long size = sizeOf(image);
+        if (size > memoryLimit) return;
+        remove(key);
+        entries.put(key, new Entry(image, validator, size));
+        memoryUsed += size;
+        trim();
+    }
+    
+    public synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) memoryUsed -= entry.size;
+    }
+    
+    public synchronized void clear() {
+        entries.clear();
+        memoryUsed = 0;
+    }
+    
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (memoryUsed > memoryLimit && it.hasNext()) {
+            memoryUsed -= it.next().size;
+            it.remove();
+            evicted++;
+        }
+    }
+    
+    public synchronized long getMemoryLimit() {
+        return memoryLimit;
+    }
+    
+    public synchronized void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        trim();
+    }
+    
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+    
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+    
+    private static class Entry {
+        private Image image;
+        private String validator;
+        private long size;
+        
+        private Entry(Image image, String validator, long size) {
+            this.image = image;
+            this.validator = validator;
+            this.size = size;
+        }
+    }
+    
+}
@@ -0,0 +1,107 @@
+package com.ssplugins.preedit.util.data;
+
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Optional;
+
+// Where an image comes from, so it can be decoded at full size or as a smaller preview.
+// Decoded images are shared through the ImageCache, keyed by source and size.
+public class ImageSource {
+    
+    private String key;
+    private String version;
+    private Opener opener;
+    private int width = -1, height = -1;
+    
+    // A version of null means the source can change without notice, so nothing is cached.
+    public ImageSource(String key, String version, Opener opener) {
+        this.key = key;
+        this.version = version;
+        this.opener = opener;
+    }
+    
+    public static ImageSource of(File file) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            key = file.getAbsolutePath();
+        }
+        return new ImageSource(key, file.lastModified() + "/" + file.length(), () -> Files.newInputStream(file.toPath()));
+    }
+    
+    public static ImageSource of(String link, HttpCache.Response response) {
+        String version = response.getVersion();
+        return new ImageSource(link, version.isEmpty() ? null : version, response::openStream);
+    }
+    
+    public String getKey() {
+        return key;
+    }
+    
+    public Image load() throws IOException {
+        return decode(key, 0);
+    }
+    
+    // Scaled down to fit in maxSize by maxSize. Images that already fit, and a maxSize of 0, load at full size.
+    public Image load(int maxSize) throws IOException {
+        if (maxSize <= 0 || !readSize() || (width <= maxSize && height <= maxSize)) return load();
+        return decode(key + "@" + maxSize, maxSize);
+    }
+    
+    private Image decode(String cacheKey, int maxSize) throws IOException {
+        ImageCache cache = ImageCache.getDefault();
+        if (version != null) {
+            Optional<Image> cached = cache.get(cacheKey, version);
+            if (cached.isPresent()) return cached.get();
+        }
+        Image image;
+        try (InputStream in = opener.open()) {
+            // Decoding at the requested size avoids holding the full image in memory.
+            image = maxSize > 0 ? new Image(in, maxSize, maxSize, true, true) : new Image(in);
+        }
+        if (version != null) cache.put(cacheKey, version, image);
+        return image;
+    }
+    
+    // Full size of the image, read from its header. Returns false if the format isn't recognized.
+    private boolean readSize() throws IOException {
+        if (width >= 0) return true;
+        try (InputStream in = opener.open(); ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            if (stream == null) return false;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) return false;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                return true;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    // Full size of the image, or -1 if it couldn't be read from the header.
+    public int getWidth() throws IOException {
+        return readSize() ? width : -1;
+    }
+    
+    public int getHeight() throws IOException {
+        return readSize() ? height : -1;
+    }
+    
+    public interface Opener {
+        InputStream open() throws IOException;
+    }
+    
+}
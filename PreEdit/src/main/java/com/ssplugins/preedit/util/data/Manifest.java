@@ -0,0 +1,164 @@
+package com.ssplugins.preedit.util.data;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Reads generator rows one at a time from a CSV or JSONL file.
+// CSV files use the first record as the parameter names.
+public class Manifest implements Closeable {
+    
+    private BufferedReader reader;
+    private boolean csv;
+    private List<String> header;
+    private JsonParser parser = new JsonParser();
+    
+    public Manifest(Path path) throws IOException {
+        this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        this.csv = path.getFileName().toString().toLowerCase().endsWith(".csv");
+        if (csv) {
+            header = readRecord();
+            if (header == null) header = Collections.emptyList();
+        }
+    }
+    
+    public boolean isCSV() {
+        return csv;
+    }
+    
+    public List<String> getHeader() {
+        return header == null ? Collections.emptyList() : Collections.unmodifiableList(header);
+    }
+    
+    public Stream<Map<String, JsonElement>> rows() {
+        Iterator<Map<String, JsonElement>> it = new Iterator<Map<String, JsonElement>>() {
+            private Map<String, JsonElement> next;
+            private boolean done;
+            
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    next = readRow();
+                    done = next == null;
+                }
+                return next != null;
+            }
+            
+            @Override
+            public Map<String, JsonElement> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Map<String, JsonElement> row = next;
+                next = null;
+                return row;
+            }
+        };
+        Spliterator<Map<String, JsonElement>> spliterator = Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+    
+    private Map<String, JsonElement> readRow() {
+        try {
+            return csv ? readCSVRow() : readJsonRow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private Map<String, JsonElement> readJsonRow() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            JsonObject json = parser.parse(line).getAsJsonObject();
+            Map<String, JsonElement> row = new LinkedHashMap<>();
+            json.entrySet().forEach(entry -> row.put(entry.getKey(), entry.getValue()));
+            return row;
+        }
+        return null;
+    }
+    
+    private Map<String, JsonElement> readCSVRow() throws IOException {
+        List<String> record;
+        while ((record = readRecord()) != null) {
+            if (record.size() == 1 && record.get(0).isEmpty()) continue;
+            Map<String, JsonElement> row = new LinkedHashMap<>();
+            for (int i = 0; i < record.size() && i < header.size(); i++) {
+                row.put(header.get(i), cellValue(record.get(i)));
+            }
+            return row;
+        }
+        return null;
+    }
+    
+    // Cells that look like JSON arrays or objects (colors, bounds) are parsed, everything else is a string.
+    private JsonElement cellValue(String cell) {
+        String s = cell.trim();
+        if (s.startsWith("[") || s.startsWith("{")) {
+            try {
+                return parser.parse(s);
+            } catch (JsonParseException ignored) {
+            }
+        }
+        return new JsonPrimitive(cell);
+    }
+    
+    private List<String> readRecord() throws IOException {
+        int c = reader.read();
+        if (c == -1) return null;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (c != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    c = reader.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            }
+            else if (c == '\n') {
+                break;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            }
+            else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+    
+}
@@ -0,0 +1,144 @@
+package com.ssplugins.preedit.util.data;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// ARGB pixel buffer that keeps track of the area changed since the last flush.
+public class Raster {
+    
+    private int width, height;
+    private int[] pixels;
+    private int[] spans;
+    
+    private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+    
+    public Raster(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        resetDirty();
+    }
+    
+    Raster(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        resetDirty();
+    }
+    
+    public static Raster of(Image image) {
+        Raster raster = new Raster((int) image.getWidth(), (int) image.getHeight());
+        image.getPixelReader().getPixels(0, 0, raster.width, raster.height, PixelFormat.getIntArgbInstance(), raster.pixels, 0, raster.width);
+        return raster;
+    }
+    
+    public static int argb(Color color) {
+        int a = (int) Math.round(color.getOpacity() * 255);
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    int[] getPixels() {
+        return pixels;
+    }
+    
+    public int getArgb(int x, int y) {
+        return pixels[y * width + x];
+    }
+    
+    // Fills x0 to x1 (inclusive) on row y, clipped to the raster.
+    public void fillSpan(int y, int x0, int x1, int argb) {
+        if (y < 0 || y >= height) return;
+        if (x0 < 0) x0 = 0;
+        if (x1 >= width) x1 = width - 1;
+        if (x0 > x1) return;
+        int row = y * width;
+        Arrays.fill(pixels, row + x0, row + x1 + 1, argb);
+        markDirty(x0, y, x1 + 1, y + 1);
+    }
+    
+    public void fillCircle(int cx, int cy, int radius, int argb) {
+        if (radius < 1) return;
+        if (spans == null || spans.length != radius) spans = circleSpans(radius);
+        int[] half = spans;
+        for (int i = 0; i < radius; i++) {
+            if (half[i] < 0) continue;
+            fillSpan(cy + i, cx - half[i], cx + half[i], argb);
+            if (i != 0) fillSpan(cy - i, cx - half[i], cx + half[i], argb);
+        }
+    }
+    
+    // Half width of each row from the center, found with the midpoint circle algorithm.
+    // Callers keep the last result since a stroke stamps many circles of the same size.
+    static int[] circleSpans(int radius) {
+        int[] half = new int[radius];
+        Arrays.fill(half, -1);
+        int x = radius - 1;
+        int y = 0;
+        int dx = 1;
+        int dy = 1;
+        int err = dx - (radius << 1);
+        while (x >= y) {
+            half[y] = Math.max(half[y], x);
+            half[x] = Math.max(half[x], y);
+            if (err <= 0) {
+                y++;
+                err += dy;
+                dy += 2;
+            }
+            if (err > 0) {
+                x--;
+                dx += 2;
+                err += dx - (radius << 1);
+            }
+        }
+        return half;
+    }
+    
+    private void markDirty(int minX, int minY, int maxX, int maxY) {
+        dirtyMinX = Math.min(dirtyMinX, minX);
+        dirtyMinY = Math.min(dirtyMinY, minY);
+        dirtyMaxX = Math.max(dirtyMaxX, maxX);
+        dirtyMaxY = Math.max(dirtyMaxY, maxY);
+    }
+    
+    void markAllDirty() {
+        markDirty(0, 0, width, height);
+    }
+    
+    private void resetDirty() {
+        dirtyMinX = width;
+        dirtyMinY = height;
+        dirtyMaxX = 0;
+        dirtyMaxY = 0;
+    }
+    
+    public boolean isDirty() {
+        return dirtyMinX < dirtyMaxX && dirtyMinY < dirtyMaxY;
+    }
+    
+    // Copies the changed area to the image.
+    public void flush(WritableImage image) {
+        if (!isDirty()) return;
+        IntBuffer buffer = IntBuffer.wrap(pixels);
+        buffer.position(dirtyMinY * width + dirtyMinX);
+        image.getPixelWriter().setPixels(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY, PixelFormat.getIntArgbInstance(), buffer, width);
+        resetDirty();
+    }
+    
+}
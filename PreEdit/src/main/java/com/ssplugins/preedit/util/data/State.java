@@ -1,6 +1,8 @@
 package com.ssplugins.preedit.util.data;
 
 import com.ssplugins.preedit.edit.Template;
+import com.ssplugins.preedit.util.Util;
+import javafx.animation.AnimationTimer;
 import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
@@ -8,6 +10,7 @@ import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class State {
     
@@ -15,34 +18,69 @@ public class State {
     private AtomicBoolean passive = new AtomicBoolean(false);
     private Runnable renderCall;
     
+    // Renders are coalesced into at most one per pulse.
+    private AnimationTimer scheduler;
+    private AtomicBoolean scheduled = new AtomicBoolean(false);
+    private AtomicLong requested = new AtomicLong();
+    private AtomicLong performed = new AtomicLong();
+    
     private BooleanProperty upToDate = new SimpleBooleanProperty(true);
     private BooleanProperty saved = new SimpleBooleanProperty(true);
     private ObjectProperty<Template> template = new SimpleObjectProperty<>(null);
     private BooleanBinding templateLoaded;
     
     public State() {
-        upToDate.addListener((observable, oldValue, newValue) -> {
-            if (!newValue) {
-                if (!passive.get()) saved.set(false);
-                if (!rendering.get() && renderCall != null) {
-                    rendering.set(true);
-                    renderCall.run();
-                    rendering.set(false);
-                    upToDate.set(true);
-                }
+        scheduler = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                scheduled.set(false);
+                runRender();
             }
-        });
+        };
         templateLoaded = template.isNotNull();
     }
     
+    private void runRender() {
+        if (renderCall != null) {
+            rendering.set(true);
+            try {
+                renderCall.run();
+                performed.incrementAndGet();
+            } finally {
+                rendering.set(false);
+            }
+        }
+        upToDate.set(true);
+    }
+    
+    private void request() {
+        requested.incrementAndGet();
+        // Changes made by the render itself don't need another render.
+        if (rendering.get()) return;
+        if (!passive.get()) saved.set(false);
+        upToDate.set(false);
+        if (scheduled.compareAndSet(false, true)) {
+            Util.runFXSafe(scheduler::start);
+        }
+    }
+    
     public void render() {
         passive.set(false);
-        upToDate.set(false);
+        request();
     }
     
     public void renderPassive() {
         passive.set(true);
-        upToDate.set(false);
+        request();
+    }
+    
+    public long getRenderRequests() {
+        return requested.get();
+    }
+    
+    public long getRenderCount() {
+        return performed.get();
     }
     
     public void setRenderCall(Runnable renderCall) {
@@ -0,0 +1,69 @@
+package com.ssplugins.preedit.util.data;
+
+import java.util.Arrays;
+
+// Points of a brush stroke that have not been painted yet.
+// Points are only recorded while handling mouse events, and painted in one pass when the layer is drawn.
+public class Stroke {
+    
+    private int[] points = new int[32];
+    private int size;
+    private boolean started;
+    private int lastX, lastY;
+    
+    public void begin(int x, int y) {
+        size = 0;
+        started = false;
+        add(x, y);
+    }
+    
+    public void lineTo(int x, int y) {
+        add(x, y);
+    }
+    
+    private void add(int x, int y) {
+        if (size + 2 > points.length) points = Arrays.copyOf(points, points.length * 2);
+        points[size++] = x;
+        points[size++] = y;
+    }
+    
+    public boolean isPending() {
+        return size > 0;
+    }
+    
+    // Stamps circles along every pending segment, spaced close enough that the stroke has no gaps.
+    public void apply(TileMap tiles, int radius, int argb) {
+        if (size == 0) return;
+        int i = 0;
+        if (!started) {
+            lastX = points[0];
+            lastY = points[1];
+            tiles.fillCircle(lastX, lastY, radius, argb);
+            started = true;
+            i = 2;
+        }
+        double spacing = Math.max(1, radius / 4.0);
+        for (; i < size; i += 2) {
+            int x = points[i];
+            int y = points[i + 1];
+            double dx = x - lastX;
+            double dy = y - lastY;
+            double length = Math.sqrt(dx * dx + dy * dy);
+            if (length == 0) continue;
+            int steps = (int) Math.ceil(length / spacing);
+            for (int step = 1; step <= steps; step++) {
+                double t = step / (double) steps;
+                tiles.fillCircle((int) Math.round(lastX + dx * t), (int) Math.round(lastY + dy * t), radius, argb);
+            }
+            lastX = x;
+            lastY = y;
+        }
+        size = 0;
+    }
+    
+    public void clear() {
+        size = 0;
+        started = false;
+    }
+    
+}
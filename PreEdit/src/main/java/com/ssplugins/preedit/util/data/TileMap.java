@@ -0,0 +1,347 @@
+package com.ssplugins.preedit.util.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.ssplugins.preedit.util.Util;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.transform.NonInvertibleTransformException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Image split into fixed size tiles that are only allocated once something is painted on them.
+public class TileMap {
+    
+    public static final int TILE_SIZE = 64;
+    
+    private int width, height, tileSize;
+    private int columns, rows;
+    private Tile[] tiles;
+    private int[] spans;
+    private Map<Integer, int[]> recorded;
+    
+    public TileMap(int width, int height, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.tiles = new Tile[columns * rows];
+    }
+    
+    public TileMap(int width, int height) {
+        this(width, height, TILE_SIZE);
+    }
+    
+    // Splits an image into tiles, leaving out tiles that are fully transparent.
+    public static TileMap of(BufferedImage image, int tileSize) {
+        TileMap map = new TileMap(image.getWidth(), image.getHeight(), tileSize);
+        for (int ty = 0; ty < map.rows; ty++) {
+            for (int tx = 0; tx < map.columns; tx++) {
+                int x = tx * tileSize;
+                int y = ty * tileSize;
+                int w = Math.min(tileSize, map.width - x);
+                int h = Math.min(tileSize, map.height - y);
+                int[] pixels = image.getRGB(x, y, w, h, null, 0, w);
+                if (isEmpty(pixels)) continue;
+                map.tiles[ty * map.columns + tx] = new Tile(new Raster(w, h, pixels));
+            }
+        }
+        return map;
+    }
+    
+    public static JsonConverter<TileMap> converter() {
+        return new JsonConverter<TileMap>() {
+            @Override
+            public JsonElement toJson(TileMap map) {
+                return map.toJson();
+            }
+            
+            @Override
+            public TileMap fromJson(JsonElement element) {
+                if (element == null || element.isJsonNull()) return null;
+                try {
+                    // Brush layers used to be stored as a single base64 PNG.
+                    if (element.isJsonPrimitive()) return of(decode(element.getAsString()), TILE_SIZE);
+                    return TileMap.fromJson(element.getAsJsonObject());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return null;
+            }
+        };
+    }
+    
+    private static boolean isEmpty(int[] pixels) {
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0) return false;
+        }
+        return true;
+    }
+    
+    private static byte[] encode(Raster raster) throws IOException {
+        BufferedImage image = new BufferedImage(raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, raster.getWidth(), raster.getHeight(), raster.getPixels(), 0, raster.getWidth());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+    
+    private static BufferedImage decode(String data) throws IOException {
+        return decode(new ByteArrayInputStream(Base64.getDecoder().decode(data)));
+    }
+    
+    private static BufferedImage decode(InputStream in) throws IOException {
+        BufferedImage image = ImageIO.read(in);
+        if (image == null) throw new IOException("Unreadable image data.");
+        return image;
+    }
+    
+    // Fails if a tile can't be written to the asset store, so a save never silently loses pixels.
+    private JsonElement toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("width", width);
+        object.addProperty("height", height);
+        object.addProperty("tileSize", tileSize);
+        JsonArray list = new JsonArray();
+        for (int i = 0; i < tiles.length; i++) {
+            Tile tile = tiles[i];
+            if (tile == null) continue;
+            // Tiles that were not changed since they were loaded or saved keep their asset.
+            if (tile.asset == null) {
+                if (isEmpty(tile.raster.getPixels())) continue;
+                try {
+                    tile.asset = AssetStore.getDefault().put(encode(tile.raster));
+                } catch (IOException e) {
+                    throw new JsonIOException("Unable to store brush tile.", e);
+                }
+            }
+            JsonObject entry = new JsonObject();
+            entry.addProperty("x", i % columns);
+            entry.addProperty("y", i / columns);
+            entry.addProperty("asset", tile.asset);
+            list.add(entry);
+        }
+        object.add("tiles", list);
+        return object;
+    }
+    
+    private static TileMap fromJson(JsonObject object) throws IOException {
+        TileMap map = new TileMap(object.get("width").getAsInt(), object.get("height").getAsInt(), object.get("tileSize").getAsInt());
+        for (JsonElement element : object.getAsJsonArray("tiles")) {
+            JsonObject entry = element.getAsJsonObject();
+            int tx = entry.get("x").getAsInt();
+            int ty = entry.get("y").getAsInt();
+            if (tx < 0 || tx >= map.columns || ty < 0 || ty >= map.rows) continue;
+            int w = Math.min(map.tileSize, map.width - tx * map.tileSize);
+            int h = Math.min(map.tileSize, map.height - ty * map.tileSize);
+            // Inlined data is only used when the asset isn't in the store, e.g. for templates copied from elsewhere.
+            if (entry.has("asset") && (!entry.has("data") || AssetStore.getDefault().contains(entry.get("asset").getAsString()))) {
+                String asset = entry.get("asset").getAsString();
+                // The tile is read later, so keep the asset until then even if the template is deleted.
+                AssetStore.getDefault().touch(asset);
+                map.tiles[ty * map.columns + tx] = new Tile(w, h, asset);
+                continue;
+            }
+            BufferedImage image = decode(entry.get("data").getAsString());
+            w = Math.min(w, image.getWidth());
+            h = Math.min(h, image.getHeight());
+            map.tiles[ty * map.columns + tx] = new Tile(new Raster(w, h, image.getRGB(0, 0, w, h, null, 0, w)));
+        }
+        return map;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getTileSize() {
+        return tileSize;
+    }
+    
+    public int getTileCount() {
+        int count = 0;
+        for (Tile tile : tiles) {
+            if (tile != null) count++;
+        }
+        return count;
+    }
+    
+    // Fills x0 to x1 (inclusive) on row y. Erasing (argb 0) never allocates a tile.
+    public void fillSpan(int y, int x0, int x1, int argb) {
+        if (y < 0 || y >= height) return;
+        if (x0 < 0) x0 = 0;
+        if (x1 >= width) x1 = width - 1;
+        if (x0 > x1) return;
+        int ty = y / tileSize;
+        int ly = y - ty * tileSize;
+        for (int tx = x0 / tileSize; tx <= x1 / tileSize; tx++) {
+            int left = tx * tileSize;
+            int index = ty * columns + tx;
+            if (tiles[index] == null && argb == 0) continue;
+            record(index);
+            Tile tile = tile(tx, ty, true);
+            tile.modify().fillSpan(ly, Math.max(x0, left) - left, Math.min(x1, left + tileSize - 1) - left, argb);
+        }
+    }
+    
+    public void fillCircle(int cx, int cy, int radius, int argb) {
+        if (radius < 1) return;
+        if (spans == null || spans.length != radius) spans = Raster.circleSpans(radius);
+        for (int i = 0; i < radius; i++) {
+            if (spans[i] < 0) continue;
+            fillSpan(cy + i, cx - spans[i], cx + spans[i], argb);
+            if (i != 0) fillSpan(cy - i, cx - spans[i], cx + spans[i], argb);
+        }
+    }
+    
+    // Keeps a copy of every tile before it is first changed, until the recording is stopped.
+    public void startRecording() {
+        recorded = new LinkedHashMap<>();
+    }
+    
+    // Returns the original pixels of the changed tiles by index. Tiles that did not exist map to null.
+    public Map<Integer, int[]> stopRecording() {
+        Map<Integer, int[]> result = recorded;
+        recorded = null;
+        return result == null ? new LinkedHashMap<>() : result;
+    }
+    
+    private void record(int index) {
+        if (recorded == null || recorded.containsKey(index)) return;
+        recorded.put(index, getTilePixels(index));
+    }
+    
+    // Copy of the pixels of a tile, or null if it was never painted.
+    public int[] getTilePixels(int index) {
+        Tile tile = tiles[index];
+        if (tile == null) return null;
+        return tile.raster().getPixels().clone();
+    }
+    
+    // Replaces the pixels of a tile. Null removes the tile.
+    public void setTilePixels(int index, int[] pixels) {
+        if (pixels == null) {
+            tiles[index] = null;
+            return;
+        }
+        int tx = index % columns;
+        int ty = index / columns;
+        int w = Math.min(tileSize, width - tx * tileSize);
+        int h = Math.min(tileSize, height - ty * tileSize);
+        tiles[index] = new Tile(new Raster(w, h, pixels.clone()));
+    }
+    
+    private Tile tile(int tx, int ty, boolean create) {
+        int i = ty * columns + tx;
+        if (tiles[i] == null && create) {
+            int w = Math.min(tileSize, width - tx * tileSize);
+            int h = Math.min(tileSize, height - ty * tileSize);
+            tiles[i] = new Tile(new Raster(w, h));
+        }
+        return tiles[i];
+    }
+    
+    // Copies painted pixels to the tile images.
+    public void flush() {
+        for (Tile tile : tiles) {
+            if (tile != null) tile.flush();
+        }
+    }
+    
+    // Draws the allocated tiles that are visible on the canvas of the context.
+    public void draw(GraphicsContext context, double x, double y) {
+        Canvas canvas = context.getCanvas();
+        Bounds visible;
+        try {
+            visible = context.getTransform().inverseTransform(new BoundingBox(0, 0, canvas.getWidth(), canvas.getHeight()));
+        } catch (NonInvertibleTransformException e) {
+            return;
+        }
+        draw(context, x, y, visible);
+    }
+    
+    // Only tiles that intersect the area (in the coordinates of the context) are decoded and drawn.
+    public void draw(GraphicsContext context, double x, double y, Bounds area) {
+        for (int i = 0; i < tiles.length; i++) {
+            Tile tile = tiles[i];
+            if (tile == null) continue;
+            double left = x + (i % columns) * tileSize;
+            double top = y + (i / columns) * tileSize;
+            if (!area.intersects(left, top, tileSize, tileSize)) continue;
+            tile.flush();
+            context.drawImage(tile.image, left, top);
+        }
+    }
+    
+    // Tiles loaded from an asset are only decoded the first time they are drawn or painted on.
+    private static class Tile {
+        private Raster raster;
+        private WritableImage image;
+        private String asset;
+        private int width, height;
+        
+        private Tile(Raster raster) {
+            this.raster = raster;
+            raster.markAllDirty();
+        }
+        
+        private Tile(int width, int height, String asset) {
+            this.width = width;
+            this.height = height;
+            this.asset = asset;
+        }
+        
+        private Raster raster() {
+            if (raster == null) {
+                try (InputStream in = AssetStore.getDefault().open(asset)) {
+                    BufferedImage image = decode(in);
+                    int w = Math.min(width, image.getWidth());
+                    int h = Math.min(height, image.getHeight());
+                    raster = new Raster(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+                } catch (NoSuchFileException e) {
+                    // The reference is kept, so the pixels come back if the asset is restored.
+                    Util.log("Brush tile asset " + asset + " is missing, the tile is left empty.");
+                    raster = new Raster(width, height);
+                } catch (IOException e) {
+                    Util.logError(e);
+                    raster = new Raster(width, height);
+                }
+                raster.markAllDirty();
+            }
+            return raster;
+        }
+        
+        // Called before the pixels are changed.
+        private Raster modify() {
+            asset = null;
+            return raster();
+        }
+        
+        private void flush() {
+            Raster raster = raster();
+            if (image == null) image = new WritableImage(raster.getWidth(), raster.getHeight());
+            raster.flush(image);
+        }
+    }
+    
+}
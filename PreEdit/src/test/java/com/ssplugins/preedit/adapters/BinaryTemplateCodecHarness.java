@@ -0,0 +1,213 @@
+package com.ssplugins.preedit.adapters;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Converts template trees to the binary format and back, reads data written by the first version of the format,
+// and checks that damaged data is rejected with an IOException.
+// Only the tree conversions are used, so no modules are created and the JavaFX toolkit isn't needed.
+// Run with the main classes and libraries on the classpath. Exits with 1 if a check fails.
+public class BinaryTemplateCodecHarness {
+    
+    private static int failures;
+    
+    private BinaryTemplateCodec codec = new BinaryTemplateCodec(null);
+    
+    public static void main(String[] args) throws Exception {
+        BinaryTemplateCodecHarness harness = new BinaryTemplateCodecHarness();
+        harness.roundTrip();
+        harness.version1();
+        harness.damaged();
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        if (failures > 0) System.exit(1);
+    }
+    
+    // A text layer with effects and a brush layer with tiles, covering every kind of value.
+    private static JsonObject template() {
+        StringBuilder longKey = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            longKey.append((char) ('a' + i % 26));
+        }
+        JsonObject text = module("Text", null,
+                input("Content", true, json("\"Hello \\ud83d\\ude00 w\\u00f6rld, this is longer than a symbol\"")),
+                input("Font Family", false, json("\"Arial\"")),
+                input("Size", true, json("12")),
+                input("Color", false, json("[0.25, 0.5, 0.75, 1.0]")),
+                input("Location", false, json("{\"x\": -20, \"y\": 7.5, \"width\": 300, \"height\": 40, \"angle\": 0.1}")),
+                input("Wrap Width", false, JsonNull.INSTANCE),
+                input(longKey.toString(), false, json("true")));
+        text.getAsJsonArray("effects").add(effect("Drop Shadow", "Shadow",
+                input("Color", true, json("[0.0, 0.0, 0.0, 0.5]")),
+                input("Radius", false, json("2.5")),
+                input("Offset", false, json("[1, 2, 3, 4]"))));
+        text.getAsJsonArray("effects").add(effect("Clip", null,
+                input("Shape", false, json("\"RECTANGLE\"")),
+                input("Bounds", false, json("[0.5, 0.5, 2.0, 0.5]"))));
+        JsonObject brush = module("Brush", "Sketch",
+                input("Mode", false, json("\"DRAW\"")),
+                input("Size", false, json("8")),
+                input("Color", false, json("[1.0, 0.0, 0.0, 1.0]")),
+                input("hidden", false, json("false")),
+                input("data", false, json("{\"width\": 300, \"height\": 200, \"tileSize\": 128, \"tiles\": ["
+                        + "{\"x\": 0, \"y\": 0, \"asset\": \"0f1e2d3c4b5a69788796a5b4c3d2e1f00f1e2d3c4b5a69788796a5b4c3d2e1f0\"},"
+                        + "{\"x\": 2, \"y\": 1, \"asset\": \"ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100\", \"data\": \"iVBORw0KGgo=\"}]}")));
+        JsonObject template = new JsonObject();
+        template.addProperty("name", "Round trip");
+        template.addProperty("width", 640);
+        template.addProperty("height", 480);
+        template.addProperty("previewSize", 1024);
+        JsonArray modules = new JsonArray();
+        modules.add(text);
+        modules.add(brush);
+        template.add("modules", modules);
+        return template;
+    }
+    
+    private void roundTrip() throws IOException {
+        JsonObject template = template();
+        byte[] data = codec.fromJson(template);
+        check("round trip: recognized", codec.canDecode(data), true);
+        // Compared as trees, since whole numbers like 2.0 come back as 2.
+        JsonObject decoded = codec.toJson(data);
+        check("round trip: tree", decoded.equals(template), true);
+        check("round trip: encoded again", Arrays.equals(codec.fromJson(codec.toJson(data)), data), true);
+    }
+    
+    // Version 1 had no preview size.
+    private void version1() throws IOException {
+        byte[] data = version1("Old é", "Text", "Size", "Color");
+        JsonObject template = codec.toJson(data);
+        check("version 1: name", template.get("name").getAsString(), "Old é");
+        check("version 1: preview size", template.get("previewSize").getAsInt(), 2048);
+        JsonObject inputs = template.getAsJsonArray("modules").get(0).getAsJsonObject().getAsJsonObject("inputs");
+        check("version 1: number", inputs.getAsJsonObject("Size").get("value"), json("12"));
+        check("version 1: color", inputs.getAsJsonObject("Color").get("value"), json("[0.5, 0.25, 1.0, 1.0]"));
+        check("version 1: user provided", inputs.getAsJsonObject("Size").get("userProvided").getAsBoolean(), true);
+    }
+    
+    // Every cut off version of the data and a few corrupted headers fail with an IOException.
+    private void damaged() throws IOException {
+        byte[] data = codec.fromJson(template());
+        for (int length = 0; length < data.length; length += Math.max(1, length / 50)) {
+            expectFailure("truncated to " + length, Arrays.copyOf(data, length));
+        }
+        byte[] magic = data.clone();
+        magic[0] = 'X';
+        expectFailure("bad magic", magic);
+        byte[] version = data.clone();
+        version[5] = 99;
+        expectFailure("newer version", version);
+        byte[] table = data.clone();
+        table[6] = 0x7F;
+        expectFailure("string table count", table);
+    }
+    
+    private void expectFailure(String name, byte[] data) {
+        try {
+            codec.toJson(data);
+            check(name + ": rejected", false, true);
+        } catch (IOException ignored) {
+        } catch (RuntimeException e) {
+            check(name + ": exception", e.getClass().getSimpleName(), "IOException");
+        }
+    }
+    
+    // A template with one Text module in the first version of the format: name, size
+    // and two inputs, a whole number and a color.
+    private static byte[] version1(String name, String module, String size, String color) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("PEBT");
+        out.writeShort(1);
+        out.writeInt(4);
+        for (String s : new String[] {name, module, size, color}) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            varint(out, utf8.length);
+            out.write(utf8);
+        }
+        out.writeByte(1);
+        varint(out, 800);
+        varint(out, 600);
+        out.writeByte(1);
+        out.writeByte(2);
+        out.writeByte(0);
+        out.writeByte(0);
+        out.writeByte(2);
+        out.writeByte(3);
+        out.writeBoolean(true);
+        out.writeByte(3);
+        varint(out, 24);
+        out.writeByte(4);
+        out.writeBoolean(false);
+        out.writeByte(9);
+        out.writeFloat(0.5f);
+        out.writeFloat(0.25f);
+        out.writeFloat(1);
+        out.writeFloat(1);
+        return bytes.toByteArray();
+    }
+    
+    private static void varint(DataOutputStream out, int n) throws IOException {
+        while ((n & ~0x7F) != 0) {
+            out.writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+    
+    private static JsonObject module(String name, String displayName, JsonObject... inputs) {
+        JsonObject module = new JsonObject();
+        module.addProperty("name", name);
+        module.addProperty("displayName", displayName);
+        module.add("effects", new JsonArray());
+        module.add("inputs", inputs(inputs));
+        return module;
+    }
+    
+    private static JsonObject effect(String name, String displayName, JsonObject... inputs) {
+        JsonObject effect = new JsonObject();
+        effect.addProperty("name", name);
+        effect.addProperty("displayName", displayName);
+        effect.add("inputs", inputs(inputs));
+        return effect;
+    }
+    
+    private static JsonObject inputs(JsonObject... inputs) {
+        JsonObject map = new JsonObject();
+        for (JsonObject input : inputs) {
+            String name = input.remove("name").getAsString();
+            map.add(name, input);
+        }
+        return map;
+    }
+    
+    private static JsonObject input(String name, boolean userProvided, JsonElement value) {
+        JsonObject input = new JsonObject();
+        input.addProperty("name", name);
+        input.addProperty("userProvided", userProvided);
+        input.add("value", value);
+        return input;
+    }
+    
+    private static JsonElement json(String json) {
+        return new JsonParser().parse(json);
+    }
+    
+    private static void check(String name, Object actual, Object expected) {
+        if (String.valueOf(actual).equals(String.valueOf(expected))) return;
+        failures++;
+        String a = String.valueOf(actual);
+        String e = String.valueOf(expected);
+        System.out.println("FAIL " + name + ": expected " + (e.length() > 200 ? e.substring(0, 200) + "..." : e) + " but was " + (a.length() > 200 ? a.substring(0, 200) + "..." : a));
+    }
+    
+}
@@ -0,0 +1,198 @@
+package com.ssplugins.preedit.edit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Opens template stores that were cut short, damaged, compacted while saving or written in an older format,
+// and checks what survives.
+// Run with the main classes and libraries on the classpath. Exits with 1 if a check fails.
+public class TemplateStoreHarness {
+    
+    private static final int FILE_MAGIC = 0x50454453;
+    private static final int V1_MAGIC = 0x50454454;
+    private static final int RECORD_MAGIC = 0x50455452;
+    
+    private static int failures;
+    
+    private Random random = new Random(1);
+    
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("template-store");
+        TemplateStoreHarness harness = new TemplateStoreHarness();
+        try {
+            harness.tornTail(Files.createDirectory(dir.resolve("tail")));
+            harness.damagedMiddle(Files.createDirectory(dir.resolve("middle")));
+            harness.compactWhileSaving(Files.createDirectory(dir.resolve("compact")));
+            harness.upgradeV1(Files.createDirectory(dir.resolve("v1")));
+            harness.unknownVersion(Files.createDirectory(dir.resolve("future")));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        if (failures > 0) System.exit(1);
+    }
+    
+    // A record cut short by a crash is removed, and the ones before it are kept.
+    private void tornTail(Path dir) throws IOException {
+        byte[] a = data(100);
+        TemplateStore store = new TemplateStore(dir, "templates");
+        store.write("a", a, 1);
+        store.write("b", data(100), 1);
+        long end = store.getInfo("b").get().getOffset();
+        store.close();
+        Path log = dir.resolve("templates.db");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(log) - 10);
+        }
+        store = new TemplateStore(dir, "templates");
+        check("torn tail: names", store.getNames(), Arrays.asList("a"));
+        check("torn tail: data", Arrays.equals(store.read("a").get(), a), true);
+        check("torn tail: truncated", Files.size(log), end);
+        byte[] c = data(50);
+        store.write("c", c, 2);
+        store.close();
+        store = new TemplateStore(dir, "templates");
+        check("torn tail: later save", Arrays.equals(store.read("c").get(), c), true);
+        store.close();
+    }
+    
+    // A damaged record in the middle is skipped, the records after it are kept and the log is backed up.
+    private void damagedMiddle(Path dir) throws IOException {
+        byte[] a = data(100);
+        byte[] c = data(100);
+        TemplateStore store = new TemplateStore(dir, "templates");
+        store.write("a", a, 1);
+        store.write("b", data(100), 1);
+        store.write("c", c, 1);
+        long damaged = store.getInfo("b").get().getOffset();
+        store.close();
+        try (FileChannel channel = FileChannel.open(dir.resolve("templates.db"), StandardOpenOption.WRITE)) {
+            // Name length far past the end of the file.
+            channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), damaged + 4);
+        }
+        // Without the index, every record is read from the log.
+        Files.delete(dir.resolve("templates.idx"));
+        store = new TemplateStore(dir, "templates");
+        check("damaged middle: names", store.getNames(), Arrays.asList("a", "c"));
+        check("damaged middle: first", Arrays.equals(store.read("a").get(), a), true);
+        check("damaged middle: after", Arrays.equals(store.read("c").get(), c), true);
+        check("damaged middle: backup", Files.exists(dir.resolve("templates.db.damaged")), true);
+        store.close();
+        store = new TemplateStore(dir, "templates");
+        check("damaged middle: reopened", store.getNames(), Arrays.asList("a", "c"));
+        store.close();
+    }
+    
+    // Saves made while the log is being compacted are not lost, whether or not the copy has to start over.
+    private void compactWhileSaving(Path dir) throws Exception {
+        Map<String, byte[]> saved = new LinkedHashMap<>();
+        TemplateStore store = new TemplateStore(dir, "templates");
+        for (int i = 0; i < 400; i++) {
+            String name = "t" + (i % 8);
+            byte[] data = data(16 * 1024);
+            store.write(name, data, i);
+            saved.put(name, data);
+        }
+        store.write("last", data(10), 0);
+        saved.put("last", store.read("last").get());
+        long deadline = System.currentTimeMillis() + 20000;
+        while (store.getGarbageBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        check("compaction: garbage removed", store.getGarbageBytes(), 0);
+        check("compaction: log size", Files.size(dir.resolve("templates.db")) < 1024 * 1024, true);
+        checkSaved("compaction: open store", store, saved);
+        store.close();
+        store = new TemplateStore(dir, "templates");
+        checkSaved("compaction: reopened", store, saved);
+        store.close();
+    }
+    
+    // A log in the first format, which had no version or module counts, is rewritten and keeps its templates.
+    private void upgradeV1(Path dir) throws IOException {
+        byte[] a = data(100);
+        byte[] c = data(30);
+        Path log = dir.resolve("templates.db");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            write(channel, ByteBuffer.allocate(12).putInt(V1_MAGIC).putLong(42));
+            write(channel, v1Record("a", a));
+            write(channel, v1Record("b", data(100)));
+            write(channel, v1Record("c", c));
+            write(channel, v1Record("b", null));
+        }
+        byte[] original = Files.readAllBytes(log);
+        TemplateStore store = new TemplateStore(dir, "templates");
+        check("v1: names", store.getNames(), Arrays.asList("a", "c"));
+        check("v1: data", Arrays.equals(store.read("a").get(), a) && Arrays.equals(store.read("c").get(), c), true);
+        check("v1: module count", store.getInfo("a").get().getModuleCount(), -1);
+        check("v1: backup", Arrays.equals(Files.readAllBytes(dir.resolve("templates.db.v1")), original), true);
+        check("v1: new header", ByteBuffer.wrap(Files.readAllBytes(log)).getInt(), FILE_MAGIC);
+        store.write("d", data(10), 3);
+        store.close();
+        store = new TemplateStore(dir, "templates");
+        check("v1: reopened", store.getNames(), Arrays.asList("a", "c", "d"));
+        check("v1: reopened data", Arrays.equals(store.read("c").get(), c), true);
+        check("v1: new module count", store.getInfo("d").get().getModuleCount(), 3);
+        store.close();
+    }
+    
+    // A log written by a newer version is refused and left alone.
+    private void unknownVersion(Path dir) throws IOException {
+        Path log = dir.resolve("templates.db");
+        byte[] header = ByteBuffer.allocate(16).putInt(FILE_MAGIC).putInt(99).putLong(1).array();
+        Files.write(log, header);
+        try {
+            new TemplateStore(dir, "templates").close();
+            check("future version: refused", false, true);
+        } catch (IOException e) {
+            check("future version: unchanged", Arrays.equals(Files.readAllBytes(log), header), true);
+        }
+    }
+    
+    // A record in the first format. Null data is a deletion.
+    private static ByteBuffer v1Record(String name, byte[] data) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(12 + nameBytes.length + (data == null ? 0 : data.length));
+        record.putInt(RECORD_MAGIC).putInt(nameBytes.length).put(nameBytes).putInt(data == null ? -1 : data.length);
+        if (data != null) record.put(data);
+        return record;
+    }
+    
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+    
+    private static void checkSaved(String name, TemplateStore store, Map<String, byte[]> saved) throws IOException {
+        check(name + " names", store.getNames(), saved.keySet());
+        for (Map.Entry<String, byte[]> entry : saved.entrySet()) {
+            check(name + " " + entry.getKey(), Arrays.equals(store.read(entry.getKey()).orElse(null), entry.getValue()), true);
+        }
+    }
+    
+    private byte[] data(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+    
+    private static void check(String name, Object actual, Object expected) {
+        if (String.valueOf(actual).equals(String.valueOf(expected))) return;
+        failures++;
+        System.out.println("FAIL " + name + ": expected " + expected + " but was " + actual);
+    }
+    
+}
@@ -0,0 +1,196 @@
+package com.ssplugins.preedit.util.data;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Runs HttpCache against a local HTTP server and checks which requests reach it.
+// Run with the main classes and libraries on the classpath. Exits with 1 if a check fails.
+public class HttpCacheHarness {
+    
+    private static int failures;
+    
+    private HttpServer server;
+    private Map<String, String> bodies = new HashMap<>();
+    private Map<String, String> headers = new HashMap<>();
+    private Map<String, Integer> statuses = new HashMap<>();
+    private AtomicInteger requests = new AtomicInteger();
+    private AtomicInteger conditional = new AtomicInteger();
+    
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("http-cache");
+        HttpCacheHarness harness = new HttpCacheHarness();
+        try {
+            harness.start();
+            harness.noValidator(dir.resolve("a"));
+            harness.lastModified(dir.resolve("b"));
+            harness.etag(dir.resolve("c"));
+            harness.maxAge(dir.resolve("d"));
+            harness.replacedBody(dir.resolve("e"));
+            harness.clientError(dir.resolve("f"));
+        } finally {
+            harness.server.stop(0);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        if (failures > 0) System.exit(1);
+    }
+    
+    private void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            String body = bodies.get(path);
+            String header = headers.get(path);
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            if (ifNoneMatch != null || ifModifiedSince != null) conditional.incrementAndGet();
+            Integer status = statuses.get(path);
+            if (status != null) {
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+            if (header != null) {
+                String[] parts = header.split(": ", 2);
+                exchange.getResponseHeaders().add(parts[0], parts[1]);
+            }
+            boolean matches = header != null && ((ifNoneMatch != null && header.endsWith(ifNoneMatch)) || (ifModifiedSince != null && header.endsWith(ifModifiedSince)));
+            if (body == null || matches) {
+                exchange.sendResponseHeaders(body == null ? 404 : 304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] data = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        });
+        server.start();
+    }
+    
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+    
+    // Without Cache-Control or a validator, a changed body is picked up right away.
+    private void noValidator(Path dir) throws IOException {
+        HttpCache cache = new HttpCache(dir, 1024 * 1024);
+        bodies.put("/a", "one");
+        check("no validator: first body", read(cache.get(url("/a"))), "one");
+        bodies.put("/a", "two");
+        check("no validator: changed body", read(cache.get(url("/a"))), "two");
+        check("no validator: no fresh hits", cache.getHits(), 0);
+    }
+    
+    // With Last-Modified, the entry is used without a request for the revalidation interval.
+    private void lastModified(Path dir) throws IOException {
+        HttpCache cache = new HttpCache(dir, 1024 * 1024);
+        bodies.put("/b", "one");
+        headers.put("/b", "Last-Modified: Mon, 01 Jan 2018 00:00:00 GMT");
+        cache.get(url("/b"));
+        int before = requests.get();
+        check("last modified: fresh body", read(cache.get(url("/b"))), "one");
+        check("last modified: no request", requests.get() - before, 0);
+        cache.setRevalidateAfter(0);
+        int conditionalBefore = conditional.get();
+        check("last modified: revalidated body", read(cache.get(url("/b"))), "one");
+        check("last modified: conditional request", conditional.get() - conditionalBefore, 1);
+        check("last modified: 304 counted", cache.getRevalidated(), 1);
+    }
+    
+    // With only an ETag, every use is a conditional request.
+    private void etag(Path dir) throws IOException {
+        HttpCache cache = new HttpCache(dir, 1024 * 1024);
+        bodies.put("/c", "one");
+        headers.put("/c", "ETag: \"1\"");
+        cache.get(url("/c"));
+        int before = conditional.get();
+        check("etag: body", read(cache.get(url("/c"))), "one");
+        check("etag: conditional request", conditional.get() - before, 1);
+        bodies.put("/c", "two");
+        headers.put("/c", "ETag: \"2\"");
+        check("etag: changed body", read(cache.get(url("/c"))), "two");
+    }
+    
+    private void maxAge(Path dir) throws IOException {
+        HttpCache cache = new HttpCache(dir, 1024 * 1024);
+        bodies.put("/d", "one");
+        headers.put("/d", "Cache-Control: max-age=60");
+        cache.get(url("/d"));
+        int before = requests.get();
+        bodies.put("/d", "two");
+        check("max-age: fresh body", read(cache.get(url("/d"))), "one");
+        check("max-age: no request", requests.get() - before, 0);
+    }
+    
+    // A response keeps the bytes of its version after another download replaces the entry.
+    private void replacedBody(Path dir) throws IOException {
+        HttpCache cache = new HttpCache(dir, 1024 * 1024);
+        bodies.put("/e", "one");
+        HttpCache.Response first = cache.get(url("/e"));
+        bodies.put("/e", "two");
+        HttpCache.Response second = cache.get(url("/e"));
+        check("replaced: old bytes", read(first), "one");
+        check("replaced: new bytes", read(second), "two");
+        check("replaced: versions differ", first.getVersion().equals(second.getVersion()), false);
+        cache.setMaxSize(0);
+        check("evicted: old bytes", read(first), "one");
+    }
+    
+    // Only an unreachable server or a server error falls back to the stored body, not a refused request.
+    private void clientError(Path dir) throws IOException {
+        HttpCache cache = new HttpCache(dir, 1024 * 1024);
+        bodies.put("/f", "one");
+        cache.get(url("/f"));
+        statuses.put("/f", 503);
+        check("server error: stored body", read(cache.get(url("/f"))), "one");
+        check("server error: offline hit", cache.getOfflineHits(), 1);
+        statuses.put("/f", 403);
+        try {
+            cache.get(url("/f"));
+            check("client error: refused", false, true);
+        } catch (IOException e) {
+            check("client error: message", e.getMessage().startsWith("Server returned 403"), true);
+        }
+        check("client error: not an offline hit", cache.getOfflineHits(), 1);
+        server.stop(0);
+        check("unreachable: stored body", read(cache.get(url("/f"))), "one");
+        check("unreachable: offline hit", cache.getOfflineHits(), 2);
+    }
+    
+    private static String read(HttpCache.Response response) throws IOException {
+        try (InputStream in = response.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private static void check(String name, Object actual, Object expected) {
+        if (String.valueOf(actual).equals(String.valueOf(expected))) return;
+        failures++;
+        System.out.println("FAIL " + name + ": expected " + expected + " but was " + actual);
+    }
+    
+}